@@ -0,0 +1,193 @@
+package net.chilicat.felixscr.intellij.benchmarks;
+
+import net.chilicat.felixscr.intellij.build.scr.ScrAnalysisEngine;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Descriptor generation of one module generated by {@link CorpusGenerator}.
+ * <ul>
+ * <li>cold: first analysis in a fresh JVM, nothing is loaded or cached.</li>
+ * <li>warm: full analysis with a warm engine and classpath cache.</li>
+ * <li>upToDate: unchanged module, the fingerprint skips the analysis.</li>
+ * </ul>
+ * Run with {@code gradlew :felix-scr-benchmarks:jmh}, the GC profiler reports the allocation rate and
+ * {@code peakHeapBytes} the largest used heap sampled during an iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScrProcessorBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Corpus {
+
+        @Param({"10", "100"})
+        public int components;
+
+        @Param({"3"})
+        public int references;
+
+        @Param({"5", "50"})
+        public int jars;
+
+        File dir;
+
+        CorpusModule module;
+
+        @Setup(Level.Trial)
+        public void create() throws IOException {
+            dir = Files.createTempDirectory("scr-benchmark").toFile();
+            module = new CorpusGenerator(42, CorpusProfile.singleModule(components, references, jars)).generate(dir).get(0);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            CorpusGenerator.deleteTree(dir);
+        }
+
+        BenchmarkProcessor newProcessor(File stateDir, ScrAnalysisEngine engine) {
+            BenchmarkProcessor processor = module.newProcessor(stateDir);
+            processor.setSettings(new BenchmarkSettings());
+            processor.setLogger(new BenchmarkLogger(module.getName(), module.getClassDir()));
+            processor.setAnalysisEngine(engine);
+            return processor;
+        }
+    }
+
+    /**
+     * Removes the outputs before every invocation, so every invocation generates all descriptors again.
+     */
+    @State(Scope.Thread)
+    public static class Clean {
+
+        @Setup(Level.Invocation)
+        public void clean(Corpus corpus) throws IOException {
+            CorpusGenerator.deleteTree(new File(corpus.module.getClassDir(), "OSGI-INF"));
+        }
+    }
+
+    /**
+     * Outputs and state of a previous run.
+     */
+    @State(Scope.Thread)
+    public static class Built {
+
+        File stateDir;
+
+        @Setup(Level.Trial)
+        public void build(Corpus corpus) throws IOException {
+            stateDir = Files.createTempDirectory("scr-benchmark-state").toFile();
+            if (!corpus.newProcessor(stateDir, ScrAnalysisEngine.getDefault()).execute()) {
+                throw new IllegalStateException("Initial build failed");
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            CorpusGenerator.deleteTree(stateDir);
+        }
+    }
+
+    /**
+     * Samples the used heap on a background thread while an iteration runs, like the scale harness does.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Heap implements Runnable {
+
+        private static final long INTERVAL_MS = 5;
+
+        public long peakHeapBytes;
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        private Thread thread;
+
+        private volatile boolean running;
+
+        private volatile long peak;
+
+        @Setup(Level.Iteration)
+        public void start() {
+            peak = 0;
+            peakHeapBytes = 0;
+            running = true;
+            thread = new Thread(this, "heap-sampler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @TearDown(Level.Iteration)
+        public void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+            sample();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+                try {
+                    Thread.sleep(INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Publishes the largest used heap seen so far.
+         */
+        void sample() {
+            peakHeapBytes = Math.max(peakHeapBytes, Math.max(peak, memory.getHeapMemoryUsage().getUsed()));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public boolean cold(Corpus corpus, Clean clean, Heap heap) {
+        boolean success = corpus.newProcessor(null, new ScrAnalysisEngine()).execute();
+        heap.sample();
+        return success;
+    }
+
+    @Benchmark
+    public boolean warm(Corpus corpus, Clean clean, Heap heap) {
+        boolean success = corpus.newProcessor(null, ScrAnalysisEngine.getDefault()).execute();
+        heap.sample();
+        return success;
+    }
+
+    @Benchmark
+    public boolean upToDate(Corpus corpus, Built built, Heap heap) {
+        boolean success = corpus.newProcessor(built.stateDir, ScrAnalysisEngine.getDefault()).execute();
+        heap.sample();
+        return success;
+    }
+}
@@ -0,0 +1,55 @@
+package net.chilicat.felixscr.intellij.benchmarks;
+
+import net.chilicat.felixscr.intellij.build.scr.AbstractScrLogger;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts messages instead of printing them, errors are printed since they make a measurement worthless.
+ */
+public class BenchmarkLogger extends AbstractScrLogger {
+
+    private final String moduleName;
+
+    private final File classDir;
+
+    private final AtomicInteger warnings = new AtomicInteger();
+
+    public BenchmarkLogger(String moduleName, File classDir) {
+        super(false);
+        this.moduleName = moduleName;
+        this.classDir = classDir;
+    }
+
+    @Override
+    protected String getModuleName() {
+        return moduleName;
+    }
+
+    @Override
+    protected void log(Level l, String message, Throwable t, String location, int row, int column) {
+        if (l == Level.ERROR) {
+            System.err.println(message + (location != null ? " (" + location + ")" : ""));
+            if (t != null) {
+                t.printStackTrace();
+            }
+        } else if (l == Level.WARN) {
+            warnings.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected File getModuleOut() {
+        return classDir;
+    }
+
+    @Override
+    protected File[] getModuleSourceRoots() {
+        return new File[0];
+    }
+
+    public int getWarningCount() {
+        return warnings.get();
+    }
+}
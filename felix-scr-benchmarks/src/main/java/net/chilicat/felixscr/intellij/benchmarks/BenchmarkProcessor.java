@@ -0,0 +1,69 @@
+package net.chilicat.felixscr.intellij.benchmarks;
+
+import net.chilicat.felixscr.intellij.build.scr.AbstractScrProcessor;
+import net.chilicat.felixscr.intellij.build.scr.ScrMetrics;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Processor for a module on disk, outside of any IDE build.
+ */
+public class BenchmarkProcessor extends AbstractScrProcessor {
+
+    private final String moduleName;
+
+    private final File classDir;
+
+    private final File[] sourceRoots;
+
+    private final List<File> classpath;
+
+    private final File stateDir;
+
+    /**
+     * @param stateDir state of previous runs, null to analyze the whole module on every run.
+     */
+    public BenchmarkProcessor(String moduleName, File classDir, File[] sourceRoots, List<File> classpath, File stateDir) {
+        this.moduleName = moduleName;
+        this.classDir = classDir;
+        this.sourceRoots = sourceRoots;
+        this.classpath = classpath;
+        this.stateDir = stateDir;
+    }
+
+    @Override
+    protected File[] getModuleSourceRoots() {
+        return sourceRoots;
+    }
+
+    @Override
+    protected File getClassOutDir() {
+        return classDir;
+    }
+
+    @Override
+    protected String getModuleName() {
+        return moduleName;
+    }
+
+    @Override
+    protected void collectClasspath(Collection<String> classPath) {
+        for (File f : classpath) {
+            classPath.add(f.getAbsolutePath());
+        }
+    }
+
+    @Override
+    protected File getStateDir() {
+        return stateDir;
+    }
+
+    /**
+     * Benchmarks read the metrics, the summary would only add noise.
+     */
+    @Override
+    protected void reportMetrics(ScrMetrics metrics) {
+    }
+}
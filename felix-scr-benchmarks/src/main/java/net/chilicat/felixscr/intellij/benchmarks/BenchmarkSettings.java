@@ -0,0 +1,95 @@
+package net.chilicat.felixscr.intellij.benchmarks;
+
+import net.chilicat.felixscr.intellij.settings.ScrSettings;
+
+/**
+ * Settings of a benchmark run, the defaults match the plugin defaults.
+ */
+public class BenchmarkSettings implements ScrSettings {
+
+    private boolean enabled = true;
+    private boolean strictMode = true;
+    private boolean generateAccessors = true;
+    private boolean optimizedBuild = true;
+    private boolean debugLogging = false;
+    private boolean explicitServiceComponents = false;
+    private boolean traceExport = false;
+    private String spec = SPEC_1_1;
+    private String executionMode = EXECUTION_INLINE;
+
+    public boolean isOptimizedBuild() {
+        return optimizedBuild;
+    }
+
+    public void setOptimizedBuild(boolean optimizedBuild) {
+        this.optimizedBuild = optimizedBuild;
+    }
+
+    public String getSpec() {
+        return spec;
+    }
+
+    public boolean isGenerateAccessors() {
+        return generateAccessors;
+    }
+
+    public void setGenerateAccessors(boolean generateAccessors) {
+        this.generateAccessors = generateAccessors;
+    }
+
+    public void setSpec(String spec) {
+        this.spec = spec;
+    }
+
+    public boolean isStrictMode() {
+        return strictMode;
+    }
+
+    public void setStrictMode(boolean strictMode) {
+        this.strictMode = strictMode;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isSpec(String spec) {
+        return this.spec.equals(spec);
+    }
+
+    public void setDebugLogging(boolean debug) {
+        this.debugLogging = debug;
+    }
+
+    public boolean isDebugLogging() {
+        return debugLogging;
+    }
+
+    public boolean isExplicitServiceComponents() {
+        return explicitServiceComponents;
+    }
+
+    public void setExplicitServiceComponents(boolean explicitServiceComponents) {
+        this.explicitServiceComponents = explicitServiceComponents;
+    }
+
+    public String getExecutionMode() {
+        return executionMode;
+    }
+
+    public void setExecutionMode(String executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    public boolean isTraceExport() {
+        return traceExport;
+    }
+
+    public void setTraceExport(boolean traceExport) {
+        this.traceExport = traceExport;
+    }
+}
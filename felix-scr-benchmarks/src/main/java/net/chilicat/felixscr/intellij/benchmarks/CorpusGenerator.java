@@ -0,0 +1,457 @@
+package net.chilicat.felixscr.intellij.benchmarks;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generates a compiled multi-module project for scaling tests. The same seed and profile always produce
+ * the same sources, class files and jars.
+ * <p>
+ * Layout of the corpus directory:
+ * <pre>
+ * lib/libN.jar                       library jars, service interfaces and bulky classes
+ * lib/*.jar                          copies of the OSGi and Felix annotation artifacts
+ * modules/mN/src                     components, Felix and OSGi DS flavor, and the module API
+ * modules/mN/resources/META-INF      the bundle manifest
+ * modules/mN/resources/OSGI-INF      hand-written descriptors of some modules
+ * modules/mN/classes                 compiled output with manifest and hand-written descriptors
+ * </pre>
+ * The API of a module is an interface hierarchy of the profile's depth whose root extends the API of a
+ * module it depends on. Components implement the API and refer to APIs of dependencies and to library
+ * services.
+ * <p>
+ * The annotation artifacts are given by the {@value #ANNOTATION_JARS_PROPERTY} system property, a path list
+ * of the osgi.core, osgi.cmpn and Felix SCR annotations jars. The Gradle tasks take it from the
+ * {@code corpusLibs} configuration.
+ * <p>
+ * Run from the command line or with {@code gradlew :felix-scr-benchmarks:generateCorpus}:
+ * {@code CorpusGenerator <dir> [small|medium|large] [seed]}.
+ */
+public class CorpusGenerator {
+
+    /**
+     * 2020-01-01, time of all jar entries.
+     */
+    private static final long FIXED_TIME = 1577836800000L;
+
+    public static final String ANNOTATION_JARS_PROPERTY = "corpus.annotationJars";
+
+    private final long seed;
+
+    private final CorpusProfile profile;
+
+    public CorpusGenerator(long seed, CorpusProfile profile) {
+        this.seed = seed;
+        this.profile = profile;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: CorpusGenerator <dir> [small|medium|large] [seed]");
+            System.exit(2);
+        }
+
+        final File dir = new File(args[0]);
+        final CorpusProfile profile = CorpusProfile.named(args.length > 1 ? args[1] : "small");
+        final long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        final long start = System.nanoTime();
+        final List<CorpusModule> modules = new CorpusGenerator(seed, profile).generate(dir);
+
+        int components = 0;
+        for (CorpusModule module : modules) {
+            components += module.getComponents();
+        }
+
+        System.out.println(String.format("Generated %d modules with %d components into %s in %d s",
+            modules.size(), components, dir, (System.nanoTime() - start) / 1000000000L));
+    }
+
+    /**
+     * @param dir directory the corpus is written to, it should be empty.
+     * @return the modules in dependency order.
+     */
+    public List<CorpusModule> generate(File dir) throws IOException {
+        final Random random = new Random(seed);
+        final List<File> annotationJars = annotationJars(new File(dir, "lib"));
+
+        final List<File> libraries = new ArrayList<File>();
+        for (int j = 0; j < profile.getLibraryJars(); j++) {
+            libraries.add(generateLibrary(new File(dir, "lib"), j, random));
+        }
+
+        final List<CorpusModule> modules = new ArrayList<CorpusModule>();
+        for (int m = 0; m < profile.getModules(); m++) {
+            modules.add(generateModule(new File(dir, "modules"), m, modules, libraries, annotationJars, random));
+        }
+
+        final StringBuilder info = new StringBuilder();
+        info.append("seed=").append(seed).append('\n');
+        info.append("profile=").append(profile).append('\n');
+        write(new File(dir, "corpus.properties"), info.toString());
+
+        return modules;
+    }
+
+    private File generateLibrary(File libDir, int j, Random random) throws IOException {
+        final File work = new File(libDir, "lib" + j + "-work");
+        final File sources = new File(work, "src");
+        final String pkg = "lib" + j;
+
+        for (int c = 0; c < profile.getClassesPerJar(); c++) {
+            if (c % 2 == 0) {
+                write(new File(sources, pkg + "/Service" + c + ".java"),
+                    "package " + pkg + ";\n\npublic interface Service" + c + " {\n    void call(String value);\n}\n");
+            } else {
+                // bulk, libraries are mostly code which is never looked at.
+                final StringBuilder sb = new StringBuilder("package " + pkg + ";\n\npublic class Util" + c + " {\n");
+                final int methods = 4 + random.nextInt(12);
+                for (int k = 0; k < methods; k++) {
+                    sb.append("    public static String method").append(k).append("(String s) {\n");
+                    sb.append("        return s + \"").append(Long.toHexString(random.nextLong())).append("\".substring(").append(k % 8).append(");\n");
+                    sb.append("    }\n");
+                }
+                sb.append("}\n");
+                write(new File(sources, pkg + "/Util" + c + ".java"), sb.toString());
+            }
+        }
+
+        final File classes = new File(work, "classes");
+        compile(sources, classes, Collections.<File>emptyList());
+
+        final File jar = new File(libDir, pkg + ".jar");
+        jar(classes, jar);
+        deleteTree(work);
+        return jar;
+    }
+
+    private CorpusModule generateModule(File modulesDir,
+                                        int m,
+                                        List<CorpusModule> previous,
+                                        List<File> libraries,
+                                        List<File> annotationJars,
+                                        Random random) throws IOException {
+        final String name = "m" + m;
+        final File moduleDir = new File(modulesDir, name);
+        final File sources = new File(moduleDir, "src");
+        final File resources = new File(moduleDir, "resources");
+        final File classDir = new File(moduleDir, "classes");
+
+        // dependencies on earlier modules keep the graph acyclic.
+        final Set<Integer> dependencies = new TreeSet<Integer>();
+        for (int d = 0; d < profile.getDependenciesPerModule() && m > 0; d++) {
+            dependencies.add(random.nextInt(m));
+        }
+
+        final Set<Integer> jars = new TreeSet<Integer>();
+        for (int j = 0; j < profile.getJarsPerModule() && !libraries.isEmpty(); j++) {
+            jars.add(random.nextInt(libraries.size()));
+        }
+
+        // API hierarchy: Api0 extends Api1 extends ... extends the API of a dependency.
+        final String apiPkg = name + ".api";
+        for (int d = 0; d < interfaceDepth(); d++) {
+            final String parent;
+            if (d + 1 < interfaceDepth()) {
+                parent = apiPkg + ".Api" + (d + 1);
+            } else if (!dependencies.isEmpty()) {
+                parent = "m" + dependencies.iterator().next() + ".api.Api0";
+            } else {
+                parent = null;
+            }
+
+            write(new File(sources, name + "/api/Api" + d + ".java"),
+                "package " + apiPkg + ";\n\npublic interface Api" + d + (parent != null ? " extends " + parent : "")
+                    + " {\n    void level" + d + "();\n}\n");
+        }
+
+        final List<String> referenceTypes = new ArrayList<String>();
+        for (int dep : dependencies) {
+            referenceTypes.add("m" + dep + ".api.Api0");
+        }
+        for (int j : jars) {
+            for (int c = 0; c < profile.getClassesPerJar(); c += 2) {
+                referenceTypes.add("lib" + j + ".Service" + c);
+            }
+        }
+
+        for (int c = 0; c < profile.getComponentsPerModule(); c++) {
+            write(new File(sources, name + "/impl/Component" + c + ".java"), componentSource(name, c, referenceTypes, random));
+        }
+
+        // spread evenly, the share of modules with hand-written descriptors is exactly the ratio.
+        final double ratio = profile.getHandWrittenDescriptorRatio();
+        final boolean handWritten = Math.floor((m + 1) * ratio) > Math.floor(m * ratio);
+        if (handWritten) {
+            write(new File(sources, name + "/impl/Legacy.java"),
+                "package " + name + ".impl;\n\npublic class Legacy implements Runnable {\n    public void run() {\n    }\n}\n");
+            write(new File(resources, "OSGI-INF/" + name + ".legacy.xml"),
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<scr:component xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.1.0\" name=\"" + name + ".legacy\">\n"
+                    + "    <implementation class=\"" + name + ".impl.Legacy\"/>\n"
+                    + "    <service>\n        <provide interface=\"java.lang.Runnable\"/>\n    </service>\n"
+                    + "</scr:component>\n");
+        }
+
+        final Manifest manifest = new Manifest();
+        final Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-SymbolicName", "corpus." + name);
+        attributes.putValue("Bundle-Version", "1.0.0");
+        attributes.putValue("Export-Package", apiPkg + ";version=\"1.0.0\"");
+        final StringBuilder imports = new StringBuilder("org.osgi.service.component;version=\"[1.1,2)\"");
+        for (int dep : dependencies) {
+            imports.append(",m").append(dep).append(".api;version=\"[1.0,2)\"");
+        }
+        for (int j : jars) {
+            imports.append(",lib").append(j);
+        }
+        attributes.putValue("Import-Package", imports.toString());
+        final File manifestFile = new File(resources, "META-INF/MANIFEST.MF");
+        manifestFile.getParentFile().mkdirs();
+        try (OutputStream out = Files.newOutputStream(manifestFile.toPath())) {
+            manifest.write(out);
+        }
+
+        // classpath like the IDE builds it: annotations, libraries and all modules it transitively depends on.
+        final List<File> classpath = new ArrayList<File>(annotationJars);
+        for (int j : jars) {
+            classpath.add(libraries.get(j));
+        }
+        final Set<File> moduleDirs = new LinkedHashSet<File>();
+        final List<String> dependencyNames = new ArrayList<String>();
+        for (int dep : dependencies) {
+            final CorpusModule dependency = previous.get(dep);
+            dependencyNames.add(dependency.getName());
+            moduleDirs.add(dependency.getClassDir());
+            for (File f : dependency.getClasspath()) {
+                if (f.isDirectory()) {
+                    moduleDirs.add(f);
+                }
+            }
+        }
+        classpath.addAll(moduleDirs);
+
+        compile(sources, classDir, classpath);
+
+        // what the resource builder would copy.
+        copyTree(resources, classDir);
+
+        return new CorpusModule(name, new File[]{sources, resources}, classDir, classpath, dependencyNames, profile.getComponentsPerModule());
+    }
+
+    private int interfaceDepth() {
+        return Math.max(1, profile.getInterfaceDepth());
+    }
+
+    private String componentSource(String module, int c, List<String> referenceTypes, Random random) {
+        final boolean felix = random.nextBoolean();
+        final String pkg = module + ".impl";
+        final String service = module + ".api.Api0";
+        final StringBuilder sb = new StringBuilder("package " + pkg + ";\n\n");
+
+        if (felix) {
+            sb.append("@org.apache.felix.scr.annotations.Component(immediate = ").append(random.nextBoolean()).append(")\n");
+            sb.append("@org.apache.felix.scr.annotations.Service(").append(service).append(".class)\n");
+        } else {
+            sb.append("@org.osgi.service.component.annotations.Component(service = ").append(service).append(".class)\n");
+        }
+
+        sb.append("public class Component").append(c).append(" implements ").append(service).append(" {\n");
+
+        for (int r = 0; r < profile.getReferencesPerComponent() && !referenceTypes.isEmpty(); r++) {
+            final String type = referenceTypes.get(random.nextInt(referenceTypes.size()));
+            final String field = "ref" + r;
+
+            if (felix) {
+                sb.append("    @org.apache.felix.scr.annotations.Reference(bind = \"bind").append(r).append("\", unbind = \"unbind").append(r).append("\")\n");
+                sb.append("    private ").append(type).append(' ').append(field).append(";\n");
+                sb.append("    protected void bind").append(r).append('(').append(type).append(" s) { ").append(field).append(" = s; }\n");
+                sb.append("    protected void unbind").append(r).append('(').append(type).append(" s) { ").append(field).append(" = null; }\n");
+            } else {
+                sb.append("    @org.osgi.service.component.annotations.Reference\n");
+                sb.append("    private volatile ").append(type).append(' ').append(field).append(";\n");
+            }
+        }
+
+        // every level of the API hierarchy has to be implemented.
+        for (int d = 0; d < interfaceDepth(); d++) {
+            sb.append("    public void level").append(d).append("() {\n    }\n");
+        }
+        sb.append("}\n");
+
+        return sb.toString();
+    }
+
+    /**
+     * Copies the annotation artifacts into the corpus, so it does not depend on the location of the build
+     * which generated it. The classpath of this JVM cannot be used, under JMH it is the benchmark fat jar.
+     *
+     * @return the copies of the jars listed by {@value #ANNOTATION_JARS_PROPERTY}.
+     */
+    static List<File> annotationJars(File libDir) throws IOException {
+        final String paths = System.getProperty(ANNOTATION_JARS_PROPERTY, "");
+        if (paths.isEmpty()) {
+            throw new IOException("System property " + ANNOTATION_JARS_PROPERTY
+                + " must list the osgi.core, osgi.cmpn and Felix SCR annotations jars");
+        }
+
+        final List<File> jars = new ArrayList<File>();
+        for (String path : paths.split(File.pathSeparator)) {
+            final File source = new File(path);
+            if (!source.isFile()) {
+                throw new IOException("Annotation jar does not exist: " + source);
+            }
+
+            final File copy = new File(libDir, source.getName());
+            Files.createDirectories(libDir.toPath());
+            Files.copy(source.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            // fixed times keep the corpus identical between runs.
+            copy.setLastModified(FIXED_TIME);
+            jars.add(copy);
+        }
+        return jars;
+    }
+
+    static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void compile(File sourceDir, File classDir, List<File> classpath) throws IOException {
+        final Set<String> files = new TreeSet<String>();
+        Files.walkFileTree(sourceDir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (file.toString().endsWith(".java")) {
+                    files.add(file.toString());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        compile(files, classDir, classpath);
+    }
+
+    /**
+     * Compiles the given sources like the corpus has been compiled, e.g. to change a class of a generated
+     * module. Other classes of the module have to be on the classpath.
+     */
+    public static void compile(Collection<String> files, File classDir, List<File> classpath) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IOException("A JDK is required to compile the corpus");
+        }
+
+        final List<String> args = new ArrayList<String>();
+        args.add("-nowarn");
+        args.add("-proc:none");
+        // the Felix annotations are deprecated.
+        args.add("-XDsuppressNotes");
+        args.add("-d");
+        args.add(classDir.getPath());
+
+        if (!classpath.isEmpty()) {
+            final StringBuilder cp = new StringBuilder();
+            for (File f : classpath) {
+                cp.append(cp.length() > 0 ? File.pathSeparator : "").append(f.getPath());
+            }
+            args.add("-cp");
+            args.add(cp.toString());
+        }
+
+        args.addAll(files);
+
+        classDir.mkdirs();
+
+        if (compiler.run(null, null, null, args.toArray(new String[0])) != 0) {
+            throw new IOException("Compilation of " + files.size() + " sources into " + classDir + " failed");
+        }
+    }
+
+    static void jar(File classDir, File jar) throws IOException {
+        final Path root = classDir.toPath();
+        final Set<Path> files = new TreeSet<Path>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        jar.getParentFile().mkdirs();
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar.toPath()))) {
+            for (Path file : files) {
+                final JarEntry entry = new JarEntry(root.relativize(file).toString().replace(File.separatorChar, '/'));
+                // fixed times keep the jars identical between runs.
+                entry.setTime(FIXED_TIME);
+                out.putNextEntry(entry);
+                Files.copy(file, out);
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static void copyTree(File from, File to) throws IOException {
+        if (!from.isDirectory()) {
+            return;
+        }
+        final Path source = from.toPath();
+        final Path target = to.toPath();
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                final Path copy = target.resolve(source.relativize(file).toString());
+                Files.createDirectories(copy.getParent());
+                Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Deletes a directory with its content, missing directories are ignored.
+     */
+    public static void deleteTree(File dir) throws IOException {
+        if (dir == null || !dir.exists()) {
+            return;
+        }
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException exc) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
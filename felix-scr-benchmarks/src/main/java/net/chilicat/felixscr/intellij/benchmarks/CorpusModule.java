@@ -0,0 +1,72 @@
+package net.chilicat.felixscr.intellij.benchmarks;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compiled module of a generated corpus.
+ */
+public class CorpusModule {
+
+    private final String name;
+
+    private final File[] sourceRoots;
+
+    private final File classDir;
+
+    private final List<File> classpath;
+
+    private final List<String> dependencies;
+
+    private final int components;
+
+    CorpusModule(String name, File[] sourceRoots, File classDir, List<File> classpath, List<String> dependencies, int components) {
+        this.name = name;
+        this.sourceRoots = sourceRoots;
+        this.classDir = classDir;
+        this.classpath = Collections.unmodifiableList(classpath);
+        this.dependencies = Collections.unmodifiableList(dependencies);
+        this.components = components;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the java source root and the resource root with the manifest and hand-written descriptors.
+     */
+    public File[] getSourceRoots() {
+        return sourceRoots.clone();
+    }
+
+    public File getClassDir() {
+        return classDir;
+    }
+
+    /**
+     * @return annotation jars, library jars and the class directories of all modules it depends on.
+     */
+    public List<File> getClasspath() {
+        return classpath;
+    }
+
+    /**
+     * @return names of the modules it directly depends on, they come earlier in the corpus.
+     */
+    public List<String> getDependencies() {
+        return dependencies;
+    }
+
+    public int getComponents() {
+        return components;
+    }
+
+    /**
+     * @return a processor for this module.
+     */
+    public BenchmarkProcessor newProcessor(File stateDir) {
+        return new BenchmarkProcessor(name, classDir, getSourceRoots(), classpath, stateDir);
+    }
+}
@@ -0,0 +1,149 @@
+package net.chilicat.felixscr.intellij.benchmarks;
+
+/**
+ * Size of a generated corpus, see {@link CorpusGenerator}.
+ */
+public class CorpusProfile {
+
+    private int modules = 10;
+    private int componentsPerModule = 10;
+    private int referencesPerComponent = 3;
+    private int dependenciesPerModule = 2;
+    private int interfaceDepth = 3;
+    private int libraryJars = 5;
+    private int jarsPerModule = 3;
+    private int classesPerJar = 50;
+    private double handWrittenDescriptorRatio = 0.1;
+
+    /**
+     * @param name small, medium or large.
+     */
+    public static CorpusProfile named(String name) {
+        CorpusProfile profile = new CorpusProfile();
+        if ("small".equals(name)) {
+            return profile;
+        }
+        if ("medium".equals(name)) {
+            profile.setModules(100);
+            profile.setComponentsPerModule(20);
+            profile.setReferencesPerComponent(4);
+            profile.setDependenciesPerModule(3);
+            profile.setInterfaceDepth(5);
+            profile.setLibraryJars(20);
+            profile.setJarsPerModule(5);
+            profile.setClassesPerJar(200);
+            return profile;
+        }
+        if ("large".equals(name)) {
+            profile.setModules(300);
+            profile.setComponentsPerModule(30);
+            profile.setReferencesPerComponent(5);
+            profile.setDependenciesPerModule(4);
+            profile.setInterfaceDepth(8);
+            profile.setLibraryJars(50);
+            profile.setJarsPerModule(10);
+            profile.setClassesPerJar(500);
+            return profile;
+        }
+        throw new IllegalArgumentException("Unknown corpus profile: " + name);
+    }
+
+    /**
+     * A single module, as used by the processor benchmarks.
+     */
+    public static CorpusProfile singleModule(int components, int references, int jars) {
+        CorpusProfile profile = new CorpusProfile();
+        profile.setModules(1);
+        profile.setComponentsPerModule(components);
+        profile.setReferencesPerComponent(references);
+        profile.setLibraryJars(jars);
+        profile.setJarsPerModule(jars);
+        profile.setHandWrittenDescriptorRatio(0);
+        return profile;
+    }
+
+    public int getModules() {
+        return modules;
+    }
+
+    public void setModules(int modules) {
+        this.modules = modules;
+    }
+
+    public int getComponentsPerModule() {
+        return componentsPerModule;
+    }
+
+    public void setComponentsPerModule(int componentsPerModule) {
+        this.componentsPerModule = componentsPerModule;
+    }
+
+    public int getReferencesPerComponent() {
+        return referencesPerComponent;
+    }
+
+    public void setReferencesPerComponent(int referencesPerComponent) {
+        this.referencesPerComponent = referencesPerComponent;
+    }
+
+    public int getDependenciesPerModule() {
+        return dependenciesPerModule;
+    }
+
+    public void setDependenciesPerModule(int dependenciesPerModule) {
+        this.dependenciesPerModule = dependenciesPerModule;
+    }
+
+    public int getInterfaceDepth() {
+        return interfaceDepth;
+    }
+
+    public void setInterfaceDepth(int interfaceDepth) {
+        this.interfaceDepth = interfaceDepth;
+    }
+
+    public int getLibraryJars() {
+        return libraryJars;
+    }
+
+    public void setLibraryJars(int libraryJars) {
+        this.libraryJars = libraryJars;
+    }
+
+    public int getJarsPerModule() {
+        return jarsPerModule;
+    }
+
+    public void setJarsPerModule(int jarsPerModule) {
+        this.jarsPerModule = jarsPerModule;
+    }
+
+    public int getClassesPerJar() {
+        return classesPerJar;
+    }
+
+    public void setClassesPerJar(int classesPerJar) {
+        this.classesPerJar = classesPerJar;
+    }
+
+    public double getHandWrittenDescriptorRatio() {
+        return handWrittenDescriptorRatio;
+    }
+
+    public void setHandWrittenDescriptorRatio(double handWrittenDescriptorRatio) {
+        this.handWrittenDescriptorRatio = handWrittenDescriptorRatio;
+    }
+
+    @Override
+    public String toString() {
+        return "modules=" + modules
+            + ", componentsPerModule=" + componentsPerModule
+            + ", referencesPerComponent=" + referencesPerComponent
+            + ", dependenciesPerModule=" + dependenciesPerModule
+            + ", interfaceDepth=" + interfaceDepth
+            + ", libraryJars=" + libraryJars
+            + ", jarsPerModule=" + jarsPerModule
+            + ", classesPerJar=" + classesPerJar
+            + ", handWrittenDescriptorRatio=" + handWrittenDescriptorRatio;
+    }
+}
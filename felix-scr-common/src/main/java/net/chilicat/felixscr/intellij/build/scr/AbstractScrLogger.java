@@ -1,16 +1,63 @@
 package net.chilicat.felixscr.intellij.build.scr;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
+/**
+ * Base of the loggers. It may be used from several threads. A buffered logger keeps the messages of a
+ * module until {@link #flush()}, so noisy analyses do not flood the build with single messages and the
+ * messages of a module show up together. Identical warnings are only reported once.
+ * <p>
+ * Without debug logging the last debug messages are kept in a small ring buffer, they are reported only if
+ * the module fails.
+ */
 public abstract class AbstractScrLogger implements ScrLogger {
 
-    private boolean errorPrinted = false;
+    /**
+     * Number of debug messages kept for {@link #dumpDebugHistory()} while debug logging is off.
+     */
+    private static final int HISTORY_SIZE = 256;
+
+    private final AtomicBoolean errorPrinted = new AtomicBoolean();
+
+    private final Logger julLogger = Logger.getLogger(getClass().getName());
+
+    private final DebugEntry[] history = new DebugEntry[HISTORY_SIZE];
+
+    private long historyCount;
 
     private final boolean debugLogging;
 
+    private final boolean buffered;
+
+    private final Queue<Message> messages = new ConcurrentLinkedQueue<>();
+
+    private final Set<String> warnings = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, String> sourceLocations = new ConcurrentHashMap<>();
+
+    /**
+     * Built on the first location which needs it, a logger lives for one module build.
+     */
+    private volatile ClassSourceIndex classSourceIndex;
+
     protected AbstractScrLogger(boolean debugLogging) {
+        this(debugLogging, false);
+    }
+
+    protected AbstractScrLogger(boolean debugLogging, boolean buffered) {
         this.debugLogging = debugLogging;
+        this.buffered = buffered;
     }
 
     public void info(String s) {
@@ -30,7 +77,7 @@ public abstract class AbstractScrLogger implements ScrLogger {
     }
 
     public void error(String s, String location, int row, int column) {
-        errorPrinted = true;
+        errorPrinted.set(true);
 
         logImpl(Level.ERROR, withModuleName(s, null), null, location, row, column);
     }
@@ -40,7 +87,7 @@ public abstract class AbstractScrLogger implements ScrLogger {
     }
 
     public void error(String s, Throwable throwable) {
-        errorPrinted = true;
+        errorPrinted.set(true);
 
         logImpl(Level.ERROR, withModuleName(s, throwable), throwable, null, -1, -1);
     }
@@ -70,7 +117,7 @@ public abstract class AbstractScrLogger implements ScrLogger {
     }
 
     public boolean isDebugEnabled() {
-        return true;
+        return debugLogging;
     }
 
     public void debug(String s) {
@@ -78,9 +125,11 @@ public abstract class AbstractScrLogger implements ScrLogger {
     }
 
     public void debug(String s, Throwable throwable) {
-        Logger.getLogger(getClass().getName()).log(java.util.logging.Level.FINE, s, throwable);
+        julLogger.log(java.util.logging.Level.FINE, s, throwable);
         if (debugLogging) {
             info(s, throwable);
+        } else {
+            remember(new DebugEntry(s, throwable));
         }
     }
 
@@ -88,6 +137,43 @@ public abstract class AbstractScrLogger implements ScrLogger {
         debug(throwable.getMessage(), throwable);
     }
 
+    /**
+     * The message is built right away, the history must show the state at the time of the message.
+     */
+    public void debug(Supplier<String> content) {
+        debug(content.get(), null);
+    }
+
+    /**
+     * Keeps a debug message in the history, the oldest entry is dropped when it is full.
+     */
+    private void remember(DebugEntry entry) {
+        synchronized (history) {
+            history[(int) (historyCount % HISTORY_SIZE)] = entry;
+            historyCount++;
+        }
+    }
+
+    public void dumpDebugHistory() {
+        final List<DebugEntry> entries = new ArrayList<>();
+        synchronized (history) {
+            for (long i = Math.max(0, historyCount - HISTORY_SIZE); i < historyCount; i++) {
+                entries.add(history[(int) (i % HISTORY_SIZE)]);
+            }
+            Arrays.fill(history, null);
+            historyCount = 0;
+        }
+
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        info("Last " + entries.size() + " debug messages:");
+        for (DebugEntry entry : entries) {
+            info("  " + entry.message, entry.throwable);
+        }
+    }
+
     public boolean isInfoEnabled() {
         return true;
     }
@@ -101,11 +187,28 @@ public abstract class AbstractScrLogger implements ScrLogger {
     }
 
     public boolean isErrorPrinted() {
-        return errorPrinted;
+        return errorPrinted.get();
+    }
+
+    public void flush() {
+        Message m;
+        while ((m = messages.poll()) != null) {
+            log(m.level, m.message, m.throwable, m.location, m.row, m.column);
+        }
     }
 
     private void logImpl(Level l, String message, Throwable t, String location, int row, int column) {
-        log(l, message, t, toSourceLocation(location), row, column);
+        final String sourceLocation = toSourceLocation(location);
+
+        if (l == Level.WARN && !warnings.add(message + "|" + sourceLocation + "|" + row + "|" + column)) {
+            return;
+        }
+
+        if (buffered) {
+            messages.add(new Message(l, message, t, sourceLocation, row, column));
+        } else {
+            log(l, message, t, sourceLocation, row, column);
+        }
     }
 
     private String withModuleName(String s, Throwable t) {
@@ -129,24 +232,74 @@ public abstract class AbstractScrLogger implements ScrLogger {
     protected abstract File[] getModuleSourceRoots();
 
     private String toSourceLocation(String location) {
-        if (location != null && location.endsWith(".class")) {
-            File[] moduleSourceRoots = getModuleSourceRoots();
-            File out = getModuleOut();
-            if (out != null) {
-                String loc = new File(location).getAbsolutePath();
-
-                String substring = loc.substring(out.getAbsolutePath().length(), loc.length() - 6) + ".java";
-
-                for (File f : moduleSourceRoots) {
-                    File file = new File(f, substring);
-                    if (file.exists()) {
-                        return file.getAbsolutePath();
-                    }
+        if (location == null || !location.endsWith(".class")) {
+            return location;
+        }
+
+        final String cached = sourceLocations.get(location);
+        if (cached != null) {
+            return cached;
+        }
+
+        String sourceLocation = location;
+
+        final File out = getModuleOut();
+        if (out != null) {
+            final String loc = new File(location).getAbsolutePath();
+            final String outPath = out.getAbsolutePath();
+
+            if (loc.length() > outPath.length() + 6 && loc.startsWith(outPath)) {
+                final String classPath = loc.substring(outPath.length() + 1, loc.length() - 6).replace(File.separatorChar, '/');
+                final File source = getClassSourceIndex().findSource(classPath);
+                if (source != null) {
+                    sourceLocation = source.getAbsolutePath();
+                }
+            }
+        }
+
+        sourceLocations.put(location, sourceLocation);
+        return sourceLocation;
+    }
+
+    private ClassSourceIndex getClassSourceIndex() {
+        ClassSourceIndex index = classSourceIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = classSourceIndex;
+                if (index == null) {
+                    index = ClassSourceIndex.create(getModuleSourceRoots());
+                    classSourceIndex = index;
                 }
             }
         }
-        return location;
+        return index;
     }
 
+    private static final class DebugEntry {
+        private final String message;
+        private final Throwable throwable;
+
+        private DebugEntry(String message, Throwable throwable) {
+            this.message = message;
+            this.throwable = throwable;
+        }
+    }
 
+    private static final class Message {
+        private final Level level;
+        private final String message;
+        private final Throwable throwable;
+        private final String location;
+        private final int row;
+        private final int column;
+
+        private Message(Level level, String message, Throwable throwable, String location, int row, int column) {
+            this.level = level;
+            this.message = message;
+            this.throwable = throwable;
+            this.location = location;
+            this.row = row;
+            this.column = column;
+        }
+    }
 }
@@ -1,16 +1,23 @@
 package net.chilicat.felixscr.intellij.build.scr;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.jar.Manifest;
-import java.util.stream.Collectors;
 
 import aQute.bnd.osgi.Analyzer;
 import aQute.bnd.osgi.Builder;
+import aQute.bnd.osgi.FileResource;
 import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Processor;
 import aQute.bnd.osgi.Resource;
 import net.chilicat.felixscr.intellij.settings.ScrSettings;
 import org.apache.felix.scrplugin.bnd.SCRDescriptorBndPlugin;
@@ -19,21 +26,52 @@ public abstract class AbstractScrProcessor {
 
     public static final String OSGI_INF = "OSGI-INF";
 
+    public static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+    private static final String SERVICE_COMPONENT = "Service-Component";
+
     private ScrSettings settings;
 
     private ScrLogger logger;
 
+    private ScrMetrics metrics;
+
+    private ScrAnalysisEngine engine = ScrAnalysisEngine.getDefault();
+
+    private boolean concurrentReaders;
+
+    private Collection<File> changedClassFiles;
+
 
     private static class ReportingBuilder extends Builder {
 
         private final ScrLogger logger;
 
-        private ReportingBuilder(final ScrLogger logger) {
-            super();
+        private PackageIndex packageIndex;
+
+        private ReportingBuilder(final Processor parent, final ScrLogger logger) {
+            super(parent);
 
             this.logger = logger;
         }
 
+        /**
+         * Resources of the classpath are looked up through the index once it is set, see
+         * {@link #setClasspath(List)}.
+         */
+        @Override
+        public Resource findResource(final String path) {
+            return packageIndex != null ? packageIndex.findResource(path) : super.findResource(path);
+        }
+
+        /**
+         * Sets the classpath and indexes its packages.
+         */
+        private void setClasspath(final List<Jar> classpath) throws IOException {
+            super.setClasspath(classpath);
+            packageIndex = new PackageIndex(classpath);
+        }
+
         @Override
         public SetLocation error(final String string, final Object... args) {
             final SetLocation setLocation = super.error(string, args);
@@ -68,11 +106,72 @@ public abstract class AbstractScrProcessor {
         return logger;
     }
 
+    public void setAnalysisEngine(ScrAnalysisEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @param concurrentReaders true if other builders may read the class output while the processor runs,
+     *                          class files with generated accessors are then replaced atomically.
+     */
+    public void setConcurrentReaders(boolean concurrentReaders) {
+        this.concurrentReaders = concurrentReaders;
+    }
+
     public void setSettings(ScrSettings settings) {
         this.settings = settings;
     }
 
+    /**
+     * Restricts the next {@link #execute()} to the given class files. Descriptors of all other classes are
+     * taken from the descriptor index of the previous run, see {@link #getStateDir()}.
+     *
+     * @param changedClassFiles changed class files of the module output, or null for a full run.
+     */
+    public void setChangedClassFiles(Collection<File> changedClassFiles) {
+        this.changedClassFiles = changedClassFiles;
+    }
+
     public boolean execute() {
+        metrics = new ScrMetrics(getModuleName(), settings.isTraceExport() ? getTraceRecorder() : null);
+
+        boolean success = false;
+        try {
+            success = executeImpl();
+            return success;
+        } finally {
+            metrics.finish(success);
+            if (!success) {
+                logger.dumpDebugHistory();
+            }
+            reportMetrics(metrics);
+            logger.flush();
+        }
+    }
+
+    /**
+     * @return timings and counters of the last {@link #execute()}, null before the first one.
+     */
+    public ScrMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the recorder of the build the module and phase spans go to if the trace export is enabled,
+     * null if the environment does not export traces.
+     */
+    protected ScrTraceRecorder getTraceRecorder() {
+        return null;
+    }
+
+    /**
+     * Called when a run finished, logs the one line summary.
+     */
+    protected void reportMetrics(ScrMetrics metrics) {
+        logger.info(metrics.toSummary());
+    }
+
+    private boolean executeImpl() {
         final File classDir = this.getClassOutDir();
 
         if (classDir == null) {
@@ -81,28 +180,63 @@ public abstract class AbstractScrProcessor {
             return false;
         }
 
-        try (final Builder builder = new ReportingBuilder(logger)) {
-            builder.setTrace(logger.isDebugEnabled());
+        final File stateDir = getStateDir();
+
+        try {
+            final List<File> classpath;
+            try (ScrMetrics.Span ignored = metrics.time(ScrMetrics.Phase.CLASSPATH)) {
+                classpath = collectClasspathEntries();
+            }
 
-            logger.debug("Class dir: " + classDir.getPath());
+            final boolean fingerprinted = settings.isOptimizedBuild() && stateDir != null;
 
-            deleteServiceComponentXMLFiles(classDir, logger);
+            final Map<String, String> directoryDigests = getClasspathDirectoryDigests();
 
-            builder.setBase(classDir);
-            builder.setJar(classDir);
-            builder.setProperties(buildProprties(classDir));
-            builder.setClasspath(buildClasspath(classDir));
+            ModuleFingerprint fingerprint = null;
+
+            if (fingerprinted) {
+                final DescriptorIndex index;
+                try (ScrMetrics.Span ignored = metrics.time(ScrMetrics.Phase.FINGERPRINT)) {
+                    final ModuleFingerprint previous = ModuleFingerprint.load(stateDir);
+
+                    fingerprint = ModuleFingerprint.compute(classDir, classpath, settingsKey(), previous, directoryDigests);
+
+                    index = fingerprint.matches(previous) ? loadIntactIndex(classDir, stateDir) : null;
+                }
 
-            try (final Jar jar = builder.build()) {
-                writeGeneratedResources(jar, classDir);
+                if (index != null) {
+                    logger.debug(() -> "Module fingerprint unchanged, skip analysis of " + getModuleName());
 
-                updateManifest(jar);
+                    metrics.upToDate();
 
-                logger.debug(String.format("Built: %s", jar.getName()));
+                    try (ScrMetrics.Span ignored = metrics.time(ScrMetrics.Phase.MANIFEST)) {
+                        updateManifest(index.getAllPaths());
+                    }
+
+                    return !logger.isErrorPrinted();
+                }
             }
 
-            return !logger.isErrorPrinted();
+            final boolean success = process(classDir, stateDir, classpath);
+
+            if (fingerprinted) {
+                if (success) {
+                    try (ScrMetrics.Span ignored = metrics.time(ScrMetrics.Phase.FINGERPRINT)) {
+                        // accessors might have been written, only those class files are read again.
+                        ModuleFingerprint.compute(classDir, classpath, settingsKey(), fingerprint, directoryDigests).save(stateDir);
+                    }
+                } else {
+                    deleteState(stateDir, ModuleFingerprint::delete);
+                }
+            }
+
+            return success;
         } catch (Exception e) {
+            if (stateDir != null) {
+                deleteState(stateDir, DescriptorIndex::delete);
+                deleteState(stateDir, ModuleFingerprint::delete);
+            }
+
             logger.error(e.getMessage(), e);
 
         }
@@ -110,129 +244,516 @@ public abstract class AbstractScrProcessor {
         return false;
     }
 
-    private void writeGeneratedResources(final Jar jar, final File classDir) {
-        for (Map.Entry<String, Resource> entry : jar.getResources().entrySet()) {
-            final String jarFilePath = entry.getKey();
+    private interface StateDeletion {
+        void delete(File stateDir) throws IOException;
+    }
 
-            if (jarFilePath.startsWith(OSGI_INF)) {
-                File outputFile = new File(classDir, jarFilePath);
+    /**
+     * A state file which stays behind would be trusted by the next run, so a failed delete is an error.
+     */
+    private void deleteState(final File stateDir, final StateDeletion deletion) {
+        try {
+            deletion.delete(stateDir);
+        } catch (IOException e) {
+            logger.error("Cannot delete build state of " + getModuleName() + ", rebuild the module", e);
+        }
+    }
+
+    private boolean process(final File classDir, final File stateDir, final List<File> classpath) throws Exception {
+        if (isWithoutComponents(classDir, stateDir)) {
+            return true;
+        }
+
+        try (final ReportingBuilder builder = new ReportingBuilder(engine.getDefaults(), logger)) {
+            builder.setTrace(logger.isDebugEnabled());
 
-                int dirIndex = jarFilePath.lastIndexOf('/');
+            logger.debug(() -> "Class dir: " + classDir.getPath());
 
-                if (dirIndex > 0) {
-                    final String dirPath = jarFilePath.substring(0, dirIndex);
+            final IncrementalScope scope = createIncrementalScope(classDir, stateDir);
 
-                    File outDir = new File(classDir, dirPath);
+            if (scope != null && scope.changed.isEmpty()) {
+                logger.debug("No changed classes, keep descriptors of previous run");
 
-                    outDir.mkdirs();
+                final Set<String> undeleted;
+                try (ScrMetrics.Span ignored = metrics.time(ScrMetrics.Phase.CLEANUP)) {
+                    undeleted = deleteStaleOutputs(classDir, scope.getStaleDescriptors(), Collections.emptySet());
                 }
 
-                try (final FileOutputStream out = new FileOutputStream(outputFile)) {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug(String.format("Writing: %s", outputFile.getCanonicalPath()));
+                final DescriptorIndex index = scope.previous.merge(scope.getReplacedClasses(), new DescriptorIndex(settingsKey()));
+                index.addStalePaths(undeleted);
+
+                try (ScrMetrics.Span ignored = metrics.time(ScrMetrics.Phase.MANIFEST)) {
+                    updateManifest(index.getAllPaths());
+                }
+
+                index.save(stateDir);
+
+                return !logger.isErrorPrinted();
+            }
+
+            final DescriptorIndex ledger = scope != null ? scope.previous : stateDir != null ? DescriptorIndex.load(stateDir) : null;
+
+            // outputs of the previous run, deleted afterwards unless they are generated again.
+            final Set<String> previousOutputs;
+            final Predicate<String> mayOverwrite;
+
+            if (ledger != null) {
+                previousOutputs = ledger.getAllPaths();
+                mayOverwrite = previousOutputs::contains;
+                previousOutputs.addAll(ledger.getStalePaths());
+            } else {
+                final Set<String> nonDelete = collectNonDeletes();
+                previousOutputs = collectServiceComponentXMLFiles(classDir, nonDelete);
+                mayOverwrite = path -> !nonDelete.contains(path.substring(OSGI_INF.length() + 1));
+            }
+
+            builder.setBase(classDir);
+            if (scope == null) {
+                builder.setJar(createClassJar(classDir));
+            } else {
+                builder.setJar(scope.createJar(getModuleName()));
+            }
+
+            try (final StagingDir staging = StagingDir.create(stateDir, !concurrentReaders)) {
+                stageClasses(builder.getJar(), staging, metrics);
+
+                builder.setProperties(buildProprties());
+                final List<Jar> classpathJars;
+                try (ScrMetrics.Span ignored = metrics.time(ScrMetrics.Phase.CLASSPATH_JARS)) {
+                    classpathJars = buildClasspath(classDir, classpath);
+                    builder.setClasspath(classpathJars);
+                }
+
+                final SCRDescriptorBndPlugin plugin = engine.createPlugin(builder, buildPluginOptions(staging.getDir()));
+                try (ScrMetrics.Span ignored = metrics.time(ScrMetrics.Phase.ANALYSIS)) {
+                    builder.addBasicPlugin(plugin);
+
+                    // the analysis runs the annotation plugins, the bundle itself is never needed.
+                    builder.analyze();
+                } finally {
+                    builder.removeBasicPlugin(plugin);
+                    recordClasspathUsage(classpathJars);
+                }
+
+                final Jar jar = builder.getJar();
+                final Map<String, Resource> generated;
+                final DescriptorIndex generatedIndex;
+
+                try (ScrMetrics.Span ignored = metrics.time(ScrMetrics.Phase.WRITE)) {
+                    staging.syncBack();
+
+                    generated = getGeneratedResources(jar, classDir);
+
+                    writeGeneratedResources(generated, classDir, mayOverwrite);
+
+                    generatedIndex = DescriptorIndex.create(settingsKey(), generated);
+
+                    registerOutputs(generatedIndex, classDir);
+                }
+
+                metrics.componentsEmitted(generated.keySet().stream().filter(AbstractScrProcessor::isServiceComponent).count());
+
+                DescriptorIndex index = generatedIndex;
+
+                try (ScrMetrics.Span ignored = metrics.time(ScrMetrics.Phase.CLEANUP)) {
+                    if (scope == null) {
+                        index.addStalePaths(deleteStaleOutputs(classDir, previousOutputs, generated.keySet()));
+                    } else {
+                        final Set<String> undeleted = deleteStaleOutputs(classDir, scope.getStaleDescriptors(), generated.keySet());
+
+                        index = scope.previous.merge(scope.getReplacedClasses(), index);
+                        index.addStalePaths(undeleted);
                     }
-                    entry.getValue().write(out);
-                } catch (Exception e) {
-                    logger.error(e.getMessage(), e);
                 }
+
+                try (ScrMetrics.Span ignored = metrics.time(ScrMetrics.Phase.MANIFEST)) {
+                    updateManifest(index.getAllPaths());
+                }
+
+                if (stateDir != null) {
+                    if (logger.isErrorPrinted()) {
+                        deleteState(stateDir, DescriptorIndex::delete);
+                    } else {
+                        index.save(stateDir);
+                    }
+                }
+
+                logger.debug(() -> String.format("Analyzed: %s", jar.getName()));
+            }
+
+            return !logger.isErrorPrinted();
+        }
+    }
+
+    /**
+     * Modules which never had components and do not refer to any component annotation are not handed to bnd.
+     * Descriptors which might be left over from a run without state are removed like a full run would do.
+     */
+    private boolean isWithoutComponents(final File classDir, final File stateDir) throws IOException {
+        final DescriptorIndex previous = stateDir != null ? DescriptorIndex.load(stateDir) : null;
+
+        if (previous != null && !previous.isEmpty()) {
+            return false;
+        }
+
+        if (engine.getAnnotationScanner().hasAnnotatedClasses(classDir)) {
+            return false;
+        }
+
+        logger.debug(() -> "No component annotations found in " + getModuleName());
+
+        final DescriptorIndex index = new DescriptorIndex(settingsKey());
+
+        if (previous == null) {
+            index.addStalePaths(deleteStaleOutputs(classDir, collectServiceComponentXMLFiles(classDir, collectNonDeletes()), Collections.emptySet()));
+        }
+
+        if (stateDir != null) {
+            index.save(stateDir);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the descriptor index of the previous run if all descriptors it lists still exist, otherwise null.
+     */
+    private DescriptorIndex loadIntactIndex(final File classDir, final File stateDir) throws IOException {
+        final DescriptorIndex index = DescriptorIndex.load(stateDir);
+
+        if (index == null || !index.getSettings().equals(settingsKey())) {
+            return null;
+        }
+
+        if (!index.getStalePaths().isEmpty()) {
+            logger.debug(() -> "Stale descriptors left by the previous run, analyze module");
+            return null;
+        }
+
+        for (String path : index.getAllPaths()) {
+            if (!new File(classDir, path).isFile()) {
+                logger.debug(() -> "Descriptor " + path + " is missing, analyze module");
+                return null;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Only class files are relevant for the annotation plugins, other resources of the output are not loaded.
+     */
+    private Jar createClassJar(final File classDir) throws IOException {
+        final Jar jar = new Jar(getModuleName());
+        final Path root = classDir.toPath();
+
+        if (classDir.isDirectory()) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (file.getFileName().toString().endsWith(".class")) {
+                        jar.putResource(root.relativize(file).toString().replace(File.separatorChar, '/'), new FileResource(file.toFile()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        return jar;
+    }
+
+    /**
+     * The Felix generator writes accessors into the class files of its output directory. Also counts the
+     * classes handed to the analysis.
+     */
+    private static void stageClasses(final Jar jar, final StagingDir staging, final ScrMetrics metrics) throws IOException {
+        for (Map.Entry<String, Resource> entry : jar.getResources().entrySet()) {
+            if (entry.getKey().endsWith(".class")) {
+                metrics.classesAnalyzed(1);
+
+                if (entry.getValue() instanceof FileResource) {
+                    final File classFile = ((FileResource) entry.getValue()).getFile();
+                    metrics.bytesStaged(classFile.length());
+                    staging.stage(entry.getKey(), classFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decides whether the run can be restricted to the changed classes.
+     *
+     * @return the scope of an incremental run or null if the whole module must be analyzed.
+     */
+    private IncrementalScope createIncrementalScope(final File classDir, final File stateDir) throws IOException {
+        if (changedClassFiles == null || stateDir == null || !settings.isOptimizedBuild()) {
+            return null;
+        }
+
+        final DescriptorIndex previous = DescriptorIndex.load(stateDir);
+
+        if (previous == null || !previous.getSettings().equals(settingsKey())) {
+            logger.debug("No usable descriptor index, analyze whole module");
+            return null;
+        }
+
+        final IncrementalScope scope = new IncrementalScope(previous);
+
+        final String root = classDir.getAbsolutePath() + File.separator;
+
+        for (File file : changedClassFiles) {
+            final String path = file.getAbsolutePath();
+            if (path.startsWith(root) && path.endsWith(".class") && file.isFile()) {
+                final String relativePath = path.substring(root.length()).replace(File.separatorChar, '/');
+                scope.changed.put(toClassName(relativePath), file);
+            }
+        }
+
+        for (String className : previous.getClasses()) {
+            if (!new File(classDir, className.replace('.', File.separatorChar) + ".class").isFile()) {
+                scope.removed.add(className);
+            }
+        }
+
+        // members are inherited, javac does not recompile subclasses for e.g. a new private field.
+        for (String className : new SuperclassIndex(classDir).findSubclassesOf(previous.getClasses(), scope.getReplacedClasses())) {
+            final File classFile = new File(classDir, className.replace('.', File.separatorChar) + ".class");
+            if (classFile.isFile()) {
+                scope.changed.put(className, classFile);
+            }
+        }
+
+        final Set<String> replaced = scope.getReplacedClasses();
+
+        // descriptors of replaced classes are generated again, the build might have removed them already.
+        for (String path : previous.getPathsNotOwnedBy(replaced)) {
+            if (!new File(classDir, path).isFile()) {
+                logger.debug(() -> "Descriptor " + path + " is missing, analyze whole module");
+                return null;
+            }
+        }
+
+        for (String className : replaced) {
+            for (String path : previous.getPaths(className)) {
+                if (previous.isOwnedByOtherThan(path, replaced)) {
+                    logger.debug(() -> "Descriptor " + path + " is shared with unchanged classes, analyze whole module");
+                    return null;
+                }
+            }
+        }
+
+        logger.debug(() -> "Incremental run, changed classes: " + scope.changed.size() + ", removed classes: " + scope.removed.size());
+
+        return scope;
+    }
+
+    private static String toClassName(String relativeClassFilePath) {
+        return relativeClassFilePath.substring(0, relativeClassFilePath.length() - ".class".length()).replace('/', '.');
+    }
+
+    private String settingsKey() {
+        return settings.getSpec() + ";" + settings.isStrictMode() + ";" + settings.isGenerateAccessors();
+    }
+
+    /**
+     * Collects the OSGI-INF resources of the built jar, except the ones which already exist in the class
+     * output, like descriptors copied from the source roots.
+     */
+    private Map<String, Resource> getGeneratedResources(final Jar jar, final File classDir) {
+        final Map<String, Resource> generated = new TreeMap<>();
+        final String root = classDir.getAbsolutePath() + File.separator;
+
+        for (Map.Entry<String, Resource> entry : jar.getResources().entrySet()) {
+            final String path = entry.getKey();
+            final Resource resource = entry.getValue();
+
+            if (!path.startsWith(OSGI_INF + "/")) {
+                continue;
+            }
+
+            if (resource instanceof FileResource && ((FileResource) resource).getFile().getAbsolutePath().startsWith(root)) {
+                continue;
+            }
+
+            generated.put(path, resource);
+        }
+
+        return generated;
+    }
+
+    /**
+     * Writes the generated resources. Existing files which may not be overwritten are left alone, such
+     * resources are removed from the given map.
+     */
+    private void writeGeneratedResources(final Map<String, Resource> generated, final File classDir, final Predicate<String> mayOverwrite) {
+        final Iterator<Map.Entry<String, Resource>> it = generated.entrySet().iterator();
+
+        while (it.hasNext()) {
+            final Map.Entry<String, Resource> entry = it.next();
+            final File outputFile = new File(classDir, entry.getKey());
+
+            if (outputFile.exists() && !mayOverwrite.test(entry.getKey())) {
+                logger.warn(String.format("Keep %s, it has not been generated by a previous run", outputFile.getPath()));
+                it.remove();
+                continue;
+            }
+
+            try {
+                final ByteArrayOutputStream content = new ByteArrayOutputStream();
+                entry.getValue().write(content);
+
+                if (OutputWriter.writeIfChanged(outputFile, content.toByteArray())) {
+                    logger.debug(() -> String.format("Writing: %s", outputFile.getPath()));
+                } else {
+                    logger.debug(() -> String.format("Unchanged: %s", outputFile.getPath()));
+                }
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void registerOutputs(final DescriptorIndex index, final File classDir) throws IOException {
+        for (String className : index.getClasses()) {
+            final File classFile = new File(classDir, className.replace('.', File.separatorChar) + ".class");
+
+            for (String path : index.getPaths(className)) {
+                registerOutput(new File(classDir, path), classFile);
             }
         }
     }
 
-    private Properties buildProprties(final File classDir) throws IOException {
+    /**
+     * Annotation defaults are inherited from the engine, see {@link ScrAnalysisEngine#getDefaults()}.
+     */
+    private Properties buildProprties() {
         Properties properties = new Properties();
 
         properties.put(Analyzer.BUNDLE_SYMBOLICNAME, getModuleName());
-        properties.put(Analyzer.DSANNOTATIONS, "*");
-        properties.put(Analyzer.METATYPE_ANNOTATIONS, "*");
-        properties.put(Analyzer.IMPORT_PACKAGE, "*");
 
+        return properties;
+    }
 
+    private Map<String, String> buildPluginOptions(final File destDir) throws IOException {
         final Map<String, String> felixScrPluginOptions = new LinkedHashMap<>();
 
         felixScrPluginOptions.put("strictMode", Boolean.toString(settings.isStrictMode()));
         felixScrPluginOptions.put("generateAccessors", Boolean.toString(settings.isGenerateAccessors()));
         felixScrPluginOptions.put("specVersion", settings.getSpec());
         felixScrPluginOptions.put("log", settings.isDebugLogging() ? "Debug" : "Warn");
-        felixScrPluginOptions.put("destdir", classDir.getCanonicalPath());
+        felixScrPluginOptions.put("destdir", destDir.getCanonicalPath());
 
-        header(
-            properties,
-            Analyzer.PLUGIN,
-            String.format("%s;%s", SCRDescriptorBndPlugin.class.getName(), pluginOptions(felixScrPluginOptions))
-        );
-
-        return properties;
+        return felixScrPluginOptions;
     }
 
-    private List<Jar> buildClasspath(final File classDir) throws IOException {
-        List<Jar> classpath = new ArrayList<>();
-
-        if (classDir.isDirectory()) {
-            classpath.add(new Jar(getModuleName(), classDir));
-        }
-
+    private List<File> collectClasspathEntries() throws IOException {
         final Collection<String> projectClassPath = new LinkedHashSet<String>();
 
         collectClasspath(projectClassPath);
 
+        final List<File> entries = new ArrayList<>();
+
         for (String path : projectClassPath) {
             File cpe = new File(path);
 
             if (cpe.exists()) {
-                classpath.add(new Jar(cpe));
+                entries.add(cpe);
             } else {
                 logger.warn(String.format("Path %s does not exist", cpe.getCanonicalPath()));
             }
         }
 
-        return classpath;
+        return entries;
     }
 
-    private static void header(Properties properties, String key, Object value) {
-        if (value == null) {
-            return;
+    /**
+     * Archives are opened when the analysis needs them, most components refer to types of a few of them.
+     * Directories, like the outputs of other modules, are read right away: a summary would walk them once
+     * more on every run, and bnd walks them anyway.
+     */
+    private List<Jar> buildClasspath(final File classDir, final List<File> entries) throws IOException {
+        List<Jar> classpath = new ArrayList<>();
+
+        if (classDir.isDirectory()) {
+            classpath.add(new Jar(getModuleName(), classDir));
         }
 
-        if (value instanceof Collection && ((Collection<?>) value).isEmpty()) {
-            return;
+        final ClasspathCache cache = engine.getClasspathCache();
+
+        for (File cpe : entries) {
+            if (cpe.isFile()) {
+                classpath.add(new LazyClasspathJar(cpe, cache.summary(cpe), cache, metrics));
+            } else {
+                classpath.add(cache.open(cpe, metrics));
+            }
         }
 
-        properties.put(key, value.toString().replaceAll("[\r\n]", ""));
+        return classpath;
     }
 
-    private static String pluginOptions(Map<String, String> options) {
-        return options.entrySet()
-            .stream()
-            .map(e -> e.getKey() + "=" + e.getValue())
-            .collect(Collectors.joining(";"));
+    private void recordClasspathUsage(final List<Jar> classpath) {
+        final List<String> opened = new ArrayList<>();
+        final List<String> skipped = new ArrayList<>();
+
+        for (Jar jar : classpath) {
+            if (jar instanceof LazyClasspathJar) {
+                (((LazyClasspathJar) jar).isOpened() ? opened : skipped).add(jar.getSource().getPath());
+            }
+        }
+
+        metrics.classpathEntries(opened, skipped);
+        logger.debug(() -> "Classpath entries opened: " + opened + ", skipped: " + skipped.size());
     }
 
-    private void deleteServiceComponentXMLFiles(File classDir, ScrLogger logger) {
-        final Set<String> nonDelete = collectNonDeletes();
+    private Set<String> collectServiceComponentXMLFiles(File classDir, Set<String> nonDelete) {
+        logger.debug(() -> "Preserve files: " + Arrays.toString(nonDelete.toArray()));
 
-        logger.debug("Preserve files: " + Arrays.toString(nonDelete.toArray()));
+        final Set<String> paths = new TreeSet<>();
 
         File xmlDir = new File(classDir, OSGI_INF);
 
-        logger.debug("OSGI-INF exists: " + xmlDir.exists() + " Is dir: " + xmlDir.isDirectory());
+        logger.debug(() -> "OSGI-INF exists: " + xmlDir.exists() + " Is dir: " + xmlDir.isDirectory());
 
         if (xmlDir.exists() && xmlDir.isDirectory()) {
             File[] files = xmlDir.listFiles();
 
-            logger.debug("OSGI-INF has files: " + (files != null));
+            logger.debug(() -> "OSGI-INF has files: " + (files != null));
 
             if (files != null) {
                 for (File file : files) {
                     if (!nonDelete.contains(file.getName()) && file.getName().endsWith(".xml")) {
-                        logger.debug("Delete service xml: " + file.getAbsolutePath());
-                        if (!file.delete()) {
-                            logger.warn("Cannot delete service xml: " + file.getAbsolutePath());
-                        }
+                        paths.add(OSGI_INF + "/" + file.getName());
                     }
                 }
             }
         }
+
+        return paths;
+    }
+
+    /**
+     * @return the paths which could not be deleted.
+     */
+    private Set<String> deleteStaleOutputs(File classDir, Set<String> previousOutputs, Set<String> regenerated) {
+        final Set<String> undeleted = new TreeSet<>();
+
+        for (String path : previousOutputs) {
+            if (regenerated.contains(path)) {
+                continue;
+            }
+
+            final File file = new File(classDir, path);
+
+            if (file.exists()) {
+                logger.debug(() -> "Delete service xml: " + file.getAbsolutePath());
+                if (!file.delete()) {
+                    logger.warn("Cannot delete service xml: " + file.getAbsolutePath());
+                    undeleted.add(path);
+                }
+            }
+        }
+
+        return undeleted;
     }
 
     /**
@@ -261,34 +782,39 @@ public abstract class AbstractScrProcessor {
         return nonDelete;
     }
 
-    private void updateManifest(final Jar jar) {
-        File manifest = new File(this.getClassOutDir(), "/META-INF/MANIFEST.MF");
+    /**
+     * @param generated all generated resources of the module.
+     */
+    private void updateManifest(final Set<String> generated) {
+        File manifest = new File(this.getClassOutDir(), MANIFEST);
 
-        boolean hasScrFiles = jar.getResources(s -> s.matches(OSGI_INF + "/.*\\.xml")).findAny().isPresent();
+        final boolean hasScrFiles = hasServiceComponents(generated);
 
-        logger.debug("Update Manifest, Has manifest: " + manifest.exists() + ", SCR Comps: " + hasScrFiles);
+        logger.debug(() -> "Update Manifest, Has manifest: " + manifest.exists() + ", SCR Comps: " + hasScrFiles);
 
         if (manifest.exists() && hasScrFiles) {
-            final String componentLine = OSGI_INF + "/*.xml";
+            final String componentLine = settings.isExplicitServiceComponents() ? listServiceComponents(generated) : OSGI_INF + "/*.xml";
 
             try {
-                FileInputStream in = new FileInputStream(manifest);
-                Manifest m = null;
-                try {
+                final Manifest m;
+                try (InputStream in = Files.newInputStream(manifest.toPath())) {
                     m = new Manifest(in);
-                    logger.debug("Overwrite Manifest policy");
-                    m.getMainAttributes().putValue("Service-Component", componentLine);
-                } finally {
-                    in.close();
                 }
 
-                FileOutputStream out = new FileOutputStream(manifest);
-                try {
-                    m.write(out);
-                } finally {
-                    out.close();
+                if (componentLine.equals(m.getMainAttributes().getValue(SERVICE_COMPONENT))) {
+                    logger.debug("Manifest is up to date");
+                    return;
                 }
 
+                logger.debug("Overwrite Manifest policy");
+                m.getMainAttributes().putValue(SERVICE_COMPONENT, componentLine);
+
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                m.write(out);
+
+                if (OutputWriter.writeIfChanged(manifest, out.toByteArray())) {
+                    registerManifest(manifest);
+                }
             } catch (IOException e) {
                 logger.error(e);
             }
@@ -297,6 +823,46 @@ public abstract class AbstractScrProcessor {
         }
     }
 
+    /**
+     * Lists the descriptors the {@code OSGI-INF/*.xml} header would match: the generated ones and the
+     * ones copied from the source roots.
+     *
+     * @return a sorted, comma separated list.
+     */
+    private String listServiceComponents(final Set<String> generated) {
+        final Set<String> descriptors = new TreeSet<>();
+
+        for (String path : generated) {
+            if (isServiceComponent(path)) {
+                descriptors.add(path);
+            }
+        }
+
+        for (String name : collectNonDeletes()) {
+            if (name.endsWith(".xml")) {
+                descriptors.add(OSGI_INF + "/" + name);
+            }
+        }
+
+        return String.join(",", descriptors);
+    }
+
+    private static boolean isServiceComponent(final String path) {
+        return path.endsWith(".xml") && path.lastIndexOf('/') == OSGI_INF.length();
+    }
+
+    /**
+     * @return true if one of the paths is matched by the {@code OSGI-INF/*.xml} header.
+     */
+    private static boolean hasServiceComponents(final Set<String> generated) {
+        for (String path : generated) {
+            if (isServiceComponent(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected abstract File[] getModuleSourceRoots();
 
     protected abstract File getClassOutDir();
@@ -304,4 +870,79 @@ public abstract class AbstractScrProcessor {
     protected abstract String getModuleName();
 
     protected abstract void collectClasspath(Collection<String> classPath);
+
+    /**
+     * Directory for state which must survive between builds, like the descriptor index used by
+     * incremental runs.
+     *
+     * @return the directory or null if the processor has no persistent state.
+     */
+    protected File getStateDir() {
+        return null;
+    }
+
+    /**
+     * Called for every generated resource of a class, also if the resource was unchanged.
+     *
+     * @param output    the generated file.
+     * @param classFile the class file the resource has been generated for.
+     */
+    protected void registerOutput(File output, File classFile) throws IOException {
+    }
+
+    /**
+     * Called when the Service-Component header of the manifest has been written.
+     *
+     * @param manifest the manifest in the class output.
+     */
+    protected void registerManifest(File manifest) throws IOException {
+    }
+
+    /**
+     * Digests of classpath directories, see {@link ModuleFingerprint}. Processors which run several modules
+     * in one build can share the map as long as the directories do not change in between.
+     *
+     * @return a mutable map from canonical directory path to digest.
+     */
+    protected Map<String, String> getClasspathDirectoryDigests() {
+        return new HashMap<>();
+    }
+
+    private static class IncrementalScope {
+
+        private final DescriptorIndex previous;
+
+        private final Map<String, File> changed = new TreeMap<>();
+
+        private final Set<String> removed = new TreeSet<>();
+
+        private IncrementalScope(DescriptorIndex previous) {
+            this.previous = previous;
+        }
+
+        private Set<String> getReplacedClasses() {
+            final Set<String> replaced = new HashSet<>(changed.keySet());
+            replaced.addAll(removed);
+            return replaced;
+        }
+
+        private Jar createJar(String name) throws IOException {
+            final Jar jar = new Jar(name);
+            for (Map.Entry<String, File> e : changed.entrySet()) {
+                jar.putResource(e.getKey().replace('.', '/') + ".class", new FileResource(e.getValue()));
+            }
+            return jar;
+        }
+
+        /**
+         * @return descriptors of replaced classes and the ones earlier runs could not delete.
+         */
+        private Set<String> getStaleDescriptors() {
+            final Set<String> paths = new TreeSet<>(previous.getStalePaths());
+            for (String className : getReplacedClasses()) {
+                paths.addAll(previous.getPaths(className));
+            }
+            return paths;
+        }
+    }
 }
@@ -0,0 +1,245 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Detects whether class files refer to Felix SCR, OSGi DS or OSGi metatype annotations by looking at the
+ * constant pool only. Modules without such references cannot produce component descriptors.
+ * <p>
+ * Verdicts are kept per module output for the class files of its last scan and validated against size
+ * and modification time. Class files are scanned on a pool of the scanner, not on the common pool which
+ * the build process and other plugins share.
+ */
+public final class AnnotationScanner {
+
+    private static final String[] ANNOTATION_PACKAGES = {
+        "org/apache/felix/scr/annotations/",
+        "org/osgi/service/component/annotations/",
+        "org/osgi/service/metatype/annotations/"
+    };
+
+    private static final int MIN_LENGTH = ANNOTATION_PACKAGES[0].length();
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    /**
+     * module output to the verdicts of its class files.
+     */
+    private final ConcurrentMap<String, Map<String, Verdict>> verdicts = new ConcurrentHashMap<>();
+
+    private ForkJoinPool pool;
+
+    AnnotationScanner() {
+    }
+
+    /**
+     * Scans all class files of a directory in parallel.
+     *
+     * @param classDir the module output.
+     * @return true if at least one class file refers to a component or metatype annotation.
+     */
+    public boolean hasAnnotatedClasses(File classDir) throws IOException {
+        if (!classDir.isDirectory()) {
+            return false;
+        }
+
+        final List<FileFingerprint> classFiles = new ArrayList<>();
+
+        Files.walkFileTree(classDir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (file.getFileName().toString().endsWith(".class")) {
+                    classFiles.add(new FileFingerprint(file.toAbsolutePath().toString(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        final String module = classDir.getAbsolutePath();
+        final Map<String, Verdict> previous = verdicts.getOrDefault(module, Collections.emptyMap());
+        final Map<String, Verdict> current = new ConcurrentHashMap<>();
+
+        try {
+            // a parallel stream started by a task of the pool runs on that pool.
+            return getPool().submit(() -> classFiles.parallelStream().anyMatch(f -> isAnnotated(f, previous, current))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Scan of " + classDir + " interrupted");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            // the scan stops at the first annotated class, the verdicts of the rest are still valid.
+            for (FileFingerprint classFile : classFiles) {
+                final Verdict verdict = previous.get(classFile.getPath());
+                if (verdict != null && !current.containsKey(classFile.getPath())) {
+                    current.put(classFile.getPath(), verdict);
+                }
+            }
+            verdicts.put(module, current);
+        }
+    }
+
+    /**
+     * Stops the threads of the pool once the build is done, the next scan creates a new pool. Verdicts
+     * are kept.
+     */
+    public synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), p -> {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName("Felix SCR annotation scan-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        return pool;
+    }
+
+    private static boolean isAnnotated(FileFingerprint classFile, Map<String, Verdict> previous, Map<String, Verdict> current) {
+        final Verdict cached = previous.get(classFile.getPath());
+        if (cached != null && cached.fingerprint.equals(classFile)) {
+            current.put(classFile.getPath(), cached);
+            return cached.annotated;
+        }
+
+        try {
+            final boolean annotated = referencesAnnotations(Files.readAllBytes(new File(classFile.getPath()).toPath()));
+            current.put(classFile.getPath(), new Verdict(classFile, annotated));
+            return annotated;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Walks the constant pool and checks the UTF-8 entries. Unknown class file layouts count as annotated.
+     */
+    static boolean referencesAnnotations(byte[] bytes) {
+        try {
+            final ByteBuffer in = ByteBuffer.wrap(bytes);
+
+            if (in.getInt() != MAGIC) {
+                return true;
+            }
+
+            in.getShort(); // minor
+            in.getShort(); // major
+
+            final int count = in.getShort() & 0xFFFF;
+
+            for (int i = 1; i < count; i++) {
+                final int tag = in.get() & 0xFF;
+
+                switch (tag) {
+                    case 1: // Utf8
+                        final int length = in.getShort() & 0xFFFF;
+                        if (containsAnnotationPackage(bytes, in.position(), length)) {
+                            return true;
+                        }
+                        in.position(in.position() + length);
+                        break;
+                    case 7: // Class
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        in.position(in.position() + 2);
+                        break;
+                    case 15: // MethodHandle
+                        in.position(in.position() + 3);
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        in.position(in.position() + 4);
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        in.position(in.position() + 8);
+                        i++;
+                        break;
+                    default:
+                        return true;
+                }
+            }
+
+            return false;
+        } catch (RuntimeException e) {
+            // truncated or otherwise broken, let the real analysis decide.
+            return true;
+        }
+    }
+
+    private static boolean containsAnnotationPackage(byte[] bytes, int offset, int length) {
+        if (length < MIN_LENGTH) {
+            return false;
+        }
+
+        // package names are ASCII, the modified UTF-8 encoding does not matter here.
+        final String value = new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+
+        for (String annotationPackage : ANNOTATION_PACKAGES) {
+            if (value.contains(annotationPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets all cached verdicts.
+     */
+    public void clear() {
+        verdicts.clear();
+    }
+
+    private static final class Verdict {
+        private final FileFingerprint fingerprint;
+        private final boolean annotated;
+
+        private Verdict(FileFingerprint fingerprint, boolean annotated) {
+            this.fingerprint = fingerprint;
+            this.annotated = annotated;
+        }
+    }
+}
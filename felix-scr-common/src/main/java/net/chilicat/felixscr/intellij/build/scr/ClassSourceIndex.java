@@ -0,0 +1,136 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Maps class files of a module to their source file. The source roots are walked once, nested classes map
+ * to the source of their outermost class. Sources of a package are only read for classes which are not
+ * declared in a file of their own, e.g. package-private top-level classes.
+ */
+final class ClassSourceIndex {
+
+    /**
+     * An annotation with optional arguments, which may contain one level of parentheses.
+     */
+    private static final String ANNOTATION = "@(?!interface\\b)[\\w.]+(?:\\s*\\((?:[^()]|\\([^()]*\\))*\\))?";
+
+    private static final Pattern TYPE_DECLARATION = Pattern.compile(
+        "^\\s*(?:(?:" + ANNOTATION + "|public|protected|private|abstract|final|static|strictfp)\\s+)*(?:class|interface|enum|@interface)\\s+(\\w+)",
+        Pattern.MULTILINE);
+
+    /**
+     * "p/Foo" to the source p/Foo.java.
+     */
+    private final Map<String, File> sources = new HashMap<>();
+
+    /**
+     * package path to the java files in that package.
+     */
+    private final Map<String, List<File>> packages = new HashMap<>();
+
+    /**
+     * package path to the types declared by its sources, read on demand.
+     */
+    private final ConcurrentMap<String, Map<String, File>> declarations = new ConcurrentHashMap<>();
+
+    private ClassSourceIndex() {
+    }
+
+    static ClassSourceIndex create(File[] sourceRoots) {
+        final ClassSourceIndex index = new ClassSourceIndex();
+
+        for (File sourceRoot : sourceRoots) {
+            if (sourceRoot == null || !sourceRoot.isDirectory()) {
+                continue;
+            }
+
+            final Path root = sourceRoot.toPath();
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        final String name = file.getFileName().toString();
+                        if (name.endsWith(".java")) {
+                            final String relativePath = root.relativize(file).toString().replace(File.separatorChar, '/');
+                            final String typePath = relativePath.substring(0, relativePath.length() - 5);
+
+                            // the first source root wins, like for the compiler.
+                            if (!index.sources.containsKey(typePath)) {
+                                index.sources.put(typePath, file.toFile());
+                            }
+                            index.packages.computeIfAbsent(packageOf(typePath), k -> new ArrayList<>()).add(file.toFile());
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                // locations are a convenience only.
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * @param classPath path of a class file relative to the output, without ".class", e.g. "p/Foo$Bar".
+     * @return the source or null if unknown.
+     */
+    File findSource(String classPath) {
+        final String outerPath = outerOf(classPath);
+
+        final File source = sources.get(outerPath);
+        if (source != null) {
+            return source;
+        }
+
+        final String packagePath = packageOf(outerPath);
+        return declarations.computeIfAbsent(packagePath, this::readDeclarations).get(outerPath.substring(outerPath.lastIndexOf('/') + 1));
+    }
+
+    private Map<String, File> readDeclarations(String packagePath) {
+        final List<File> files = packages.get(packagePath);
+        if (files == null) {
+            return Collections.emptyMap();
+        }
+
+        final Map<String, File> types = new HashMap<>();
+        for (File file : files) {
+            try {
+                final Matcher m = TYPE_DECLARATION.matcher(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+                while (m.find()) {
+                    types.putIfAbsent(m.group(1), file);
+                }
+            } catch (IOException e) {
+                // skip unreadable source
+            }
+        }
+        return types;
+    }
+
+    private static String outerOf(String classPath) {
+        final int nameStart = classPath.lastIndexOf('/') + 1;
+        final int nested = classPath.indexOf('$', nameStart);
+        return nested > nameStart ? classPath.substring(0, nested) : classPath;
+    }
+
+    private static String packageOf(String typePath) {
+        final int i = typePath.lastIndexOf('/');
+        return i < 0 ? "" : typePath.substring(0, i);
+    }
+}
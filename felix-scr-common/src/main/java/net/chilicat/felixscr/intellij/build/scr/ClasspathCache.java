@@ -0,0 +1,557 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Resource;
+
+/**
+ * Process wide cache of opened classpath archives.
+ * <p>
+ * Entries are keyed by canonical path and validated against size and modification time on every
+ * lookup. Archives which are byte-identical but live in several locations share one {@link Jar}.
+ * A replaced jar is closed once the last builder which still reads from it closes it.
+ * Directories are never cached because their content can change without touching the directory itself.
+ * <p>
+ * Archives of a classpath are opened on demand, see {@link LazyClasspathJar}. Their {@link Summary} is
+ * cached the same way as the jars.
+ */
+public final class ClasspathCache {
+
+    private static final ClasspathCache INSTANCE = new ClasspathCache();
+
+    private final ConcurrentMap<String, CachedJar> byPath = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Summary> summaries = new ConcurrentHashMap<>();
+
+    private final AtomicLong opened = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    public static ClasspathCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns a {@link Jar} for the given classpath entry. Jars returned for archives are shared, every
+     * call must be paired with one {@link Jar#close()} which gives the jar back to the cache.
+     *
+     * @param file an existing archive or directory.
+     * @return the jar.
+     */
+    public Jar open(File file) throws IOException {
+        return open(file, null);
+    }
+
+    /**
+     * @param metrics counts the jars which actually had to be opened, may be null.
+     */
+    Jar open(File file, ScrMetrics metrics) throws IOException {
+        if (!file.isFile()) {
+            opened.incrementAndGet();
+            if (metrics != null) {
+                metrics.jarOpened(0);
+            }
+            return new Jar(file);
+        }
+
+        final FileFingerprint fingerprint = FileFingerprint.of(file);
+
+        while (true) {
+            final SharedJar jar = lookup(file, fingerprint, metrics);
+            // a replaced jar might have been closed in between, look it up again.
+            if (jar.retain()) {
+                return jar;
+            }
+        }
+    }
+
+    /**
+     * The jar is opened outside of the map: a placeholder entry is installed first and loaded by the thread
+     * which installed it, concurrent lookups of the same archive wait for that entry only.
+     */
+    private SharedJar lookup(File file, FileFingerprint fingerprint, ScrMetrics metrics) throws IOException {
+        final String path = fingerprint.getPath();
+
+        while (true) {
+            final CachedJar cached = byPath.get(path);
+            if (cached != null && cached.fingerprint.equals(fingerprint)) {
+                hits.incrementAndGet();
+                return cached.get();
+            }
+
+            final CachedJar created = new CachedJar(fingerprint);
+            final boolean installed = cached == null
+                ? byPath.putIfAbsent(path, created) == null
+                : byPath.replace(path, cached, created);
+            if (!installed) {
+                continue;
+            }
+
+            if (cached != null) {
+                cached.release();
+            }
+
+            try {
+                return created.load(() -> load(file, created, metrics));
+            } catch (IOException e) {
+                byPath.remove(path, created);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads manifest and package directories of an archive without opening it as {@link Jar}. Jars which
+     * are already open are not read again.
+     *
+     * @param file an existing archive.
+     */
+    Summary summary(File file) throws IOException {
+        final FileFingerprint fingerprint = FileFingerprint.of(file);
+
+        final Summary summary = summaries.get(fingerprint.getPath());
+        if (summary != null && summary.fingerprint.equals(fingerprint)) {
+            return summary;
+        }
+
+        final CachedJar cached = byPath.get(fingerprint.getPath());
+        final SharedJar jar = cached != null && cached.fingerprint.equals(fingerprint) ? cached.getIfLoaded() : null;
+        final Summary created;
+        if (jar != null && jar.retain()) {
+            try {
+                created = Summary.ofJar(fingerprint, jar);
+            } finally {
+                jar.release();
+            }
+        } else {
+            created = Summary.ofArchive(fingerprint, file);
+        }
+
+        summaries.put(fingerprint.getPath(), created);
+        return created;
+    }
+
+    private SharedJar load(File file, CachedJar entry, ScrMetrics metrics) throws IOException {
+        final FileFingerprint fingerprint = entry.fingerprint;
+
+        // hashing the content is only worth it if another archive has the same size. Entries which are
+        // still loading are not waited for, two threads loading identical archives would wait for each other.
+        for (CachedJar c : byPath.values()) {
+            final SharedJar other = c.getIfLoaded();
+            if (other != null && c.fingerprint.getLength() == fingerprint.getLength() && !c.fingerprint.getPath().equals(fingerprint.getPath())) {
+                final String digest = entry.digest();
+                if (digest != null && digest.equals(c.digest()) && other.retain()) {
+                    hits.incrementAndGet();
+                    return other;
+                }
+            }
+        }
+
+        opened.incrementAndGet();
+        if (metrics != null) {
+            metrics.jarOpened(fingerprint.getLength());
+        }
+
+        return new SharedJar(file);
+    }
+
+    /**
+     * @return number of jars which have been opened since the process started.
+     */
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    /**
+     * @return number of lookups which have been answered from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Forgets all cached jars, they are closed as soon as no builder reads from them anymore.
+     */
+    public void clear() {
+        summaries.clear();
+        for (String path : byPath.keySet()) {
+            final CachedJar removed = byPath.remove(path);
+            if (removed != null) {
+                removed.release();
+            }
+        }
+    }
+
+    /**
+     * What the analysis needs to know about a classpath archive before it asks for a resource.
+     */
+    static final class Summary {
+        private final FileFingerprint fingerprint;
+        private final Manifest manifest;
+        private final Set<String> packages;
+
+        private Summary(FileFingerprint fingerprint, Manifest manifest, Set<String> packages) {
+            this.fingerprint = fingerprint;
+            this.manifest = manifest;
+            this.packages = Collections.unmodifiableSet(packages);
+        }
+
+        /**
+         * @return the manifest or null if the entry has none.
+         */
+        Manifest getManifest() {
+            return manifest;
+        }
+
+        /**
+         * @return directories which directly contain files, like bnd's directory names.
+         */
+        Set<String> getPackages() {
+            return packages;
+        }
+
+        private static Summary ofArchive(FileFingerprint fingerprint, File file) throws IOException {
+            final Set<String> packages = new HashSet<>();
+            Manifest manifest = null;
+
+            try (ZipFile zip = new ZipFile(file)) {
+                for (ZipEntry entry : Collections.list(zip.entries())) {
+                    if (!entry.isDirectory()) {
+                        packages.add(parent(entry.getName()));
+                    }
+                }
+
+                final ZipEntry entry = zip.getEntry(JarFile.MANIFEST_NAME);
+                if (entry != null) {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        manifest = new Manifest(in);
+                    }
+                }
+            }
+
+            return new Summary(fingerprint, manifest, packages);
+        }
+
+        private static Summary ofJar(FileFingerprint fingerprint, Jar jar) throws IOException {
+            final Set<String> packages = new HashSet<>();
+            for (Map.Entry<String, Map<String, Resource>> e : jar.getDirectories().entrySet()) {
+                if (e.getValue() != null && !e.getValue().isEmpty()) {
+                    packages.add(e.getKey());
+                }
+            }
+
+            try {
+                return new Summary(fingerprint, jar.getManifest(), packages);
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+
+        private static String parent(String path) {
+            final int slash = path.lastIndexOf('/');
+            return slash < 0 ? "" : path.substring(0, slash);
+        }
+    }
+
+    /**
+     * An entry of the cache, the jar is loaded once by the thread which installed the entry.
+     */
+    private static final class CachedJar {
+        private final FileFingerprint fingerprint;
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private volatile SharedJar jar;
+        private volatile IOException failure;
+        private boolean released;
+        private String digest;
+
+        private CachedJar(FileFingerprint fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        private SharedJar load(JarLoader loader) throws IOException {
+            try {
+                final SharedJar loadedJar = loader.load();
+                final boolean releasedMeanwhile;
+                synchronized (this) {
+                    jar = loadedJar;
+                    releasedMeanwhile = released;
+                }
+                if (releasedMeanwhile) {
+                    // replaced while loading, the caller's reference is taken by the retry in open().
+                    loadedJar.release();
+                }
+                return loadedJar;
+            } catch (IOException | RuntimeException e) {
+                failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                throw e;
+            } finally {
+                loaded.countDown();
+            }
+        }
+
+        private SharedJar get() throws IOException {
+            try {
+                loaded.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + fingerprint.getPath());
+            }
+
+            final SharedJar j = jar;
+            if (j == null) {
+                throw failure != null ? failure : new IOException("Could not open " + fingerprint.getPath());
+            }
+            return j;
+        }
+
+        private SharedJar getIfLoaded() {
+            return jar;
+        }
+
+        /**
+         * Gives back the reference of the cache entry, also if the jar is still loading.
+         */
+        private void release() {
+            final SharedJar j;
+            synchronized (this) {
+                released = true;
+                j = jar;
+            }
+            if (j != null) {
+                j.release();
+            }
+        }
+
+        private synchronized String digest() throws IOException {
+            if (digest == null) {
+                final File file = new File(fingerprint.getPath());
+                if (!fingerprint.equals(FileFingerprint.of(file))) {
+                    // stale entry, its content is not known anymore.
+                    return null;
+                }
+                digest = FileFingerprint.contentDigest(file);
+            }
+            return digest;
+        }
+    }
+
+    private interface JarLoader {
+        SharedJar load() throws IOException;
+    }
+
+    /**
+     * A jar which is shared by the cache entries referring to it and the builders reading from it. It is
+     * closed when the last of them lets go: a builder by {@link #close()}, the bnd Analyzer closes all
+     * classpath entries, a cache entry when the archive changed or the cache is cleared.
+     * <p>
+     * bnd makes no promise that a {@link Jar} can be read by several threads, builders run in parallel.
+     * Reads are serialized on the jar, resources handed out do the same, and maps and streams are copied
+     * while the lock is held.
+     */
+    private static final class SharedJar extends Jar {
+
+        // starts with the reference of the cache entry which opened the jar.
+        private int references = 1;
+
+        private SharedJar(File file) throws IOException {
+            super(file);
+        }
+
+        /**
+         * @return false if the jar has been closed already.
+         */
+        private synchronized boolean retain() {
+            if (references == 0) {
+                return false;
+            }
+            references++;
+            return true;
+        }
+
+        private void release() {
+            synchronized (this) {
+                if (references == 0 || --references > 0) {
+                    return;
+                }
+            }
+            super.close();
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+
+        @Override
+        public synchronized Resource getResource(String path) {
+            return share(super.getResource(path));
+        }
+
+        @Override
+        public synchronized boolean exists(String path) {
+            return super.exists(path);
+        }
+
+        @Override
+        public synchronized Map<String, Map<String, Resource>> getDirectories() {
+            final Map<String, Map<String, Resource>> copy = new TreeMap<>();
+            for (Map.Entry<String, Map<String, Resource>> e : super.getDirectories().entrySet()) {
+                copy.put(e.getKey(), share(e.getValue()));
+            }
+            return copy;
+        }
+
+        @Override
+        public synchronized Map<String, Resource> getDirectory(String path) {
+            return share(super.getDirectory(path));
+        }
+
+        @Override
+        public synchronized boolean hasDirectory(String path) {
+            return super.hasDirectory(path);
+        }
+
+        @Override
+        public synchronized Map<String, Resource> getResources() {
+            return share(super.getResources());
+        }
+
+        @Override
+        public synchronized Stream<Resource> getResources(Predicate<String> matches) {
+            final List<Resource> resources = new ArrayList<>();
+            super.getResources(matches).forEach(r -> resources.add(share(r)));
+            return resources.stream();
+        }
+
+        @Override
+        public synchronized Stream<String> getResourceNames(Predicate<String> matches) {
+            return super.getResourceNames(matches).collect(Collectors.toList()).stream();
+        }
+
+        @Override
+        public synchronized List<String> getPackages() {
+            return new ArrayList<>(super.getPackages());
+        }
+
+        @Override
+        public synchronized Manifest getManifest() throws Exception {
+            return super.getManifest();
+        }
+
+        private Map<String, Resource> share(Map<String, Resource> resources) {
+            if (resources == null) {
+                return null;
+            }
+            final Map<String, Resource> copy = new TreeMap<>();
+            for (Map.Entry<String, Resource> e : resources.entrySet()) {
+                copy.put(e.getKey(), share(e.getValue()));
+            }
+            return copy;
+        }
+
+        private Resource share(Resource resource) {
+            return resource != null ? new SharedResource(this, resource) : null;
+        }
+    }
+
+    /**
+     * A resource of a {@link SharedJar}, read under the lock of its jar. bnd resources of archives fill
+     * their buffer lazily.
+     */
+    private static final class SharedResource implements Resource {
+        private final Object lock;
+        private final Resource resource;
+
+        private SharedResource(Object lock, Resource resource) {
+            this.lock = lock;
+            this.resource = resource;
+        }
+
+        @Override
+        public InputStream openInputStream() throws Exception {
+            // the stream is read after the lock has been given up, hand out a copy of the content.
+            return new ByteArrayInputStream(bytes());
+        }
+
+        @Override
+        public void write(OutputStream out) throws Exception {
+            out.write(bytes());
+        }
+
+        @Override
+        public long lastModified() {
+            synchronized (lock) {
+                return resource.lastModified();
+            }
+        }
+
+        @Override
+        public void setExtra(String extra) {
+            synchronized (lock) {
+                resource.setExtra(extra);
+            }
+        }
+
+        @Override
+        public String getExtra() {
+            synchronized (lock) {
+                return resource.getExtra();
+            }
+        }
+
+        @Override
+        public long size() throws Exception {
+            synchronized (lock) {
+                return resource.size();
+            }
+        }
+
+        @Override
+        public ByteBuffer buffer() throws Exception {
+            return ByteBuffer.wrap(bytes());
+        }
+
+        /**
+         * The resource belongs to the shared jar, it is closed with it.
+         */
+        @Override
+        public void close() {
+        }
+
+        private byte[] bytes() throws Exception {
+            synchronized (lock) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(32, resource.size()));
+                resource.write(out);
+                return out.toByteArray();
+            }
+        }
+    }
+}
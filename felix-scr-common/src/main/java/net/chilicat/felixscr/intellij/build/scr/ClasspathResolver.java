@@ -0,0 +1,232 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transitive production classpath of the modules of one build. The closure of a module is computed once,
+ * parents reuse the closures of their dependencies instead of walking the dependency graph again.
+ * <p>
+ * The classpath of a module follows its dependency list: the class roots of a library, or the output and
+ * the classpath of a module, in the order they are declared and without duplicates. Closures are kept as
+ * arrays of shared path strings, layered projects have mostly identical closures.
+ * <p>
+ * Modules which depend on each other in a cycle have the same classpath apart from their own outputs. The
+ * strongly connected components of the dependency graph are found with Tarjan's algorithm and each
+ * component gets one closure, shared by its members.
+ * <p>
+ * Instances are meant to live for one build, module outputs and libraries must not change meanwhile.
+ *
+ * @param <M> the module type.
+ */
+public abstract class ClasspathResolver<M> {
+
+    private final Map<M, String[]> closures = new HashMap<>();
+
+    private final Map<String, String> paths = new HashMap<>();
+
+    /**
+     * @return the classpath of the module without its own output.
+     */
+    public synchronized List<String> getClasspath(M module) {
+        final String[] closure = resolve(module);
+        final String output = getOutputPath(module);
+
+        if (output == null || !Arrays.asList(closure).contains(output)) {
+            return Collections.unmodifiableList(Arrays.asList(closure));
+        }
+
+        // a member of a cycle, the closure of its component contains its own output.
+        final List<String> classpath = new ArrayList<>(closure.length - 1);
+        for (String entry : closure) {
+            if (!entry.equals(output)) {
+                classpath.add(entry);
+            }
+        }
+        return Collections.unmodifiableList(classpath);
+    }
+
+    /**
+     * @return for each classpath entry the number of the given modules whose classpath contains it. An
+     * output counts the modules which depend on its module.
+     */
+    public synchronized Map<String, Integer> countDependents(Iterable<M> modules) {
+        final Map<String, Integer> counts = new HashMap<>();
+        for (M module : modules) {
+            final String output = getOutputPath(module);
+            for (String entry : resolve(module)) {
+                if (!entry.equals(output)) {
+                    counts.merge(entry, 1, Integer::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @return number of modules whose closure is known.
+     */
+    public synchronized int getResolvedCount() {
+        return closures.size();
+    }
+
+    /**
+     * Reports the direct production dependencies of the module in the order they are declared.
+     */
+    protected abstract void collectDependencies(M module, Dependencies<M> dependencies);
+
+    /**
+     * @return the output path of the module or null if it has none.
+     */
+    protected abstract String getOutputPath(M module);
+
+    private String[] resolve(M module) {
+        final String[] cached = closures.get(module);
+        if (cached != null) {
+            return cached;
+        }
+
+        new Traversal().visit(module);
+        return closures.get(module);
+    }
+
+    private String share(String path) {
+        final String shared = paths.putIfAbsent(path, path);
+        return shared != null ? shared : path;
+    }
+
+    /**
+     * Receives the direct dependencies of a module.
+     *
+     * @param <M> the module type.
+     */
+    protected interface Dependencies<M> {
+
+        /**
+         * @param path a class root of a library.
+         */
+        void library(String path);
+
+        void module(M module);
+    }
+
+    /**
+     * Tarjan's algorithm over the modules without a closure. A component is completed after all components
+     * it depends on, so their closures are known when its own closure is built.
+     */
+    private final class Traversal {
+
+        private final Map<M, Node> nodes = new HashMap<>();
+
+        private final Deque<Node> stack = new ArrayDeque<>();
+
+        private int index;
+
+        private Node visit(final M module) {
+            final Node node = new Node(module, index++);
+            nodes.put(module, node);
+            stack.push(node);
+
+            collectDependencies(module, new Dependencies<M>() {
+                @Override
+                public void library(String path) {
+                    node.dependencies.add(new Dependency(share(path), null));
+                }
+
+                @Override
+                public void module(M dependency) {
+                    if (!dependency.equals(module)) {
+                        final String output = getOutputPath(dependency);
+                        node.dependencies.add(new Dependency(output != null ? share(output) : null, dependency));
+                    }
+                }
+            });
+
+            for (Dependency dependency : node.dependencies) {
+                if (dependency.module == null || closures.containsKey(dependency.module)) {
+                    continue;
+                }
+
+                final Node target = nodes.get(dependency.module);
+                if (target == null) {
+                    node.lowLink = Math.min(node.lowLink, visit(dependency.module).lowLink);
+                } else if (target.onStack) {
+                    node.lowLink = Math.min(node.lowLink, target.index);
+                }
+            }
+
+            if (node.lowLink == node.index) {
+                complete(node);
+            }
+            return node;
+        }
+
+        /**
+         * Pops the component of the root and builds its closure, members in the order they were reached.
+         */
+        private void complete(Node root) {
+            final LinkedList<Node> members = new LinkedList<>();
+            Node member;
+            do {
+                member = stack.pop();
+                member.onStack = false;
+                members.addFirst(member);
+            } while (member != root);
+
+            final Set<String> entries = new LinkedHashSet<>();
+            for (Node m : members) {
+                for (Dependency dependency : m.dependencies) {
+                    if (dependency.path != null) {
+                        entries.add(dependency.path);
+                    }
+                    // null for members of this component, their dependencies are added by this loop.
+                    final String[] closure = dependency.module != null ? closures.get(dependency.module) : null;
+                    if (closure != null) {
+                        entries.addAll(Arrays.asList(closure));
+                    }
+                }
+            }
+
+            final String[] closure = entries.toArray(new String[entries.size()]);
+            for (Node m : members) {
+                closures.put(m.module, closure);
+            }
+        }
+    }
+
+    private final class Node {
+        private final M module;
+        private final int index;
+        private final List<Dependency> dependencies = new ArrayList<>();
+        private int lowLink;
+        private boolean onStack = true;
+
+        private Node(M module, int index) {
+            this.module = module;
+            this.index = index;
+            this.lowLink = index;
+        }
+    }
+
+    /**
+     * A library class root, or a module with its output path.
+     */
+    private final class Dependency {
+        private final String path;
+        private final M module;
+
+        private Dependency(String path, M module) {
+            this.path = path;
+            this.module = module;
+        }
+    }
+}
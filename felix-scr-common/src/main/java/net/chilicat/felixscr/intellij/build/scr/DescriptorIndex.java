@@ -0,0 +1,302 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import aQute.bnd.osgi.Resource;
+import aQute.lib.io.IO;
+
+/**
+ * Remembers which class produced which OSGI-INF resource, so that a later run can re-analyze
+ * only changed classes and merge the result with the descriptors of all other classes.
+ */
+final class DescriptorIndex {
+
+    static final String FILE_NAME = "descriptor-index.properties";
+
+    private static final String SETTINGS_KEY = "settings";
+
+    private static final String UNOWNED_KEY = "unowned";
+
+    private static final String STALE_KEY = "stale";
+
+    private static final String CLASS_PREFIX = "class.";
+
+    private static final Pattern COMPONENT = Pattern.compile("<(?:\\w+:)?component\\b[^>]*?\\bname\\s*=\\s*\"([^\"]+)\"");
+
+    private static final Pattern IMPLEMENTATION = Pattern.compile("<(?:\\w+:)?implementation\\b[^>]*?\\bclass\\s*=\\s*\"([^\"]+)\"");
+
+    private static final Pattern DESIGNATE = Pattern.compile("<(?:\\w+:)?Designate\\b[^>]*?\\b(?:factoryPid|pid)\\s*=\\s*\"([^\"]+)\"");
+
+    private final String settings;
+
+    private final Map<String, Set<String>> byClass = new TreeMap<>();
+
+    private final Set<String> unowned = new TreeSet<>();
+
+    /**
+     * outputs of earlier runs which could not be deleted, the next run tries again.
+     */
+    private final Set<String> stale = new TreeSet<>();
+
+    DescriptorIndex(String settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * Creates an index for freshly generated OSGI-INF resources.
+     *
+     * @param settings  key of the settings used to generate the resources.
+     * @param generated the generated resources by jar path.
+     * @return the index.
+     */
+    static DescriptorIndex create(String settings, Map<String, Resource> generated) throws Exception {
+        final DescriptorIndex index = new DescriptorIndex(settings);
+        final Map<String, String> componentToClass = new HashMap<>();
+        final Map<String, String> metatypes = new TreeMap<>();
+
+        final Set<String> others = new TreeSet<>();
+
+        for (Map.Entry<String, Resource> e : generated.entrySet()) {
+            final String path = e.getKey();
+
+            if (!path.endsWith(".xml")) {
+                others.add(path);
+                continue;
+            }
+
+            final String content = read(e.getValue());
+
+            if (content.contains("Designate")) {
+                metatypes.put(path, content);
+                continue;
+            }
+
+            final Matcher components = COMPONENT.matcher(content);
+            final Matcher implementations = IMPLEMENTATION.matcher(content);
+
+            boolean owned = false;
+            while (implementations.find()) {
+                final String className = implementations.group(1);
+                index.add(className, path);
+                owned = true;
+
+                if (components.find()) {
+                    componentToClass.put(components.group(1), className);
+                }
+            }
+
+            if (!owned) {
+                index.unowned.add(path);
+            }
+        }
+
+        for (Map.Entry<String, String> e : metatypes.entrySet()) {
+            final Matcher designates = DESIGNATE.matcher(e.getValue());
+
+            boolean owned = false;
+            while (designates.find()) {
+                final String className = componentToClass.get(designates.group(1));
+                if (className != null) {
+                    index.add(className, e.getKey());
+                    owned = true;
+                }
+            }
+
+            if (!owned) {
+                others.add(e.getKey());
+            }
+        }
+
+        // e.g. metatype localization, named after the component.
+        for (String path : others) {
+            final String name = path.substring(path.lastIndexOf('/') + 1);
+            final int dot = name.lastIndexOf('.');
+            final String className = componentToClass.get(dot > 0 ? name.substring(0, dot) : name);
+
+            if (className != null) {
+                index.add(className, path);
+            } else {
+                index.unowned.add(path);
+            }
+        }
+
+        return index;
+    }
+
+    static DescriptorIndex load(File stateDir) throws IOException {
+        final File file = new File(stateDir, FILE_NAME);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        }
+
+        final DescriptorIndex index = new DescriptorIndex(properties.getProperty(SETTINGS_KEY, ""));
+
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(CLASS_PREFIX)) {
+                for (String path : split(properties.getProperty(key))) {
+                    index.add(key.substring(CLASS_PREFIX.length()), path);
+                }
+            } else if (key.equals(UNOWNED_KEY)) {
+                index.unowned.addAll(split(properties.getProperty(key)));
+            } else if (key.equals(STALE_KEY)) {
+                index.stale.addAll(split(properties.getProperty(key)));
+            }
+        }
+
+        return index;
+    }
+
+    static void delete(File stateDir) throws IOException {
+        Files.deleteIfExists(new File(stateDir, FILE_NAME).toPath());
+    }
+
+    void save(File stateDir) throws IOException {
+        if (!stateDir.isDirectory() && !stateDir.mkdirs()) {
+            throw new IOException("Cannot create " + stateDir);
+        }
+
+        final Properties properties = new Properties();
+        properties.setProperty(SETTINGS_KEY, settings);
+        properties.setProperty(UNOWNED_KEY, String.join(",", unowned));
+        if (!stale.isEmpty()) {
+            properties.setProperty(STALE_KEY, String.join(",", stale));
+        }
+
+        for (Map.Entry<String, Set<String>> e : byClass.entrySet()) {
+            properties.setProperty(CLASS_PREFIX + e.getKey(), String.join(",", e.getValue()));
+        }
+
+        try (OutputStream out = Files.newOutputStream(new File(stateDir, FILE_NAME).toPath())) {
+            properties.store(out, "Felix SCR descriptor index");
+        }
+    }
+
+    String getSettings() {
+        return settings;
+    }
+
+    Set<String> getClasses() {
+        return Collections.unmodifiableSet(byClass.keySet());
+    }
+
+    Set<String> getPaths(String className) {
+        final Set<String> paths = byClass.get(className);
+        return paths != null ? Collections.unmodifiableSet(paths) : Collections.emptySet();
+    }
+
+    /**
+     * @return all resource paths known to this index.
+     */
+    Set<String> getAllPaths() {
+        final Set<String> all = new TreeSet<>(unowned);
+        for (Set<String> paths : byClass.values()) {
+            all.addAll(paths);
+        }
+        return all;
+    }
+
+    /**
+     * @return outputs of earlier runs which still have to be deleted.
+     */
+    Set<String> getStalePaths() {
+        return Collections.unmodifiableSet(stale);
+    }
+
+    /**
+     * Records outputs which could not be deleted. Paths which are generated again are not stale.
+     */
+    void addStalePaths(Collection<String> paths) {
+        for (String path : paths) {
+            if (!unowned.contains(path) && byClass.values().stream().noneMatch(p -> p.contains(path))) {
+                stale.add(path);
+            }
+        }
+    }
+
+    /**
+     * @return all resource paths which are unowned or owned by a class which is not part of the given set.
+     */
+    Set<String> getPathsNotOwnedBy(Set<String> classes) {
+        final Set<String> paths = new TreeSet<>(unowned);
+        for (Map.Entry<String, Set<String>> e : byClass.entrySet()) {
+            if (!classes.contains(e.getKey())) {
+                paths.addAll(e.getValue());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return true if the path is owned by a class which is not part of the given set.
+     */
+    boolean isOwnedByOtherThan(String path, Set<String> classes) {
+        for (Map.Entry<String, Set<String>> e : byClass.entrySet()) {
+            if (!classes.contains(e.getKey()) && e.getValue().contains(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isEmpty() {
+        return byClass.isEmpty() && unowned.isEmpty() && stale.isEmpty();
+    }
+
+    /**
+     * Creates a new index which contains all entries of this index except the ones of the given classes,
+     * plus all entries of the given partial index.
+     */
+    DescriptorIndex merge(Set<String> replacedClasses, DescriptorIndex partial) {
+        final DescriptorIndex merged = new DescriptorIndex(partial.settings);
+
+        for (Map.Entry<String, Set<String>> e : byClass.entrySet()) {
+            if (!replacedClasses.contains(e.getKey())) {
+                for (String path : e.getValue()) {
+                    merged.add(e.getKey(), path);
+                }
+            }
+        }
+
+        for (Map.Entry<String, Set<String>> e : partial.byClass.entrySet()) {
+            for (String path : e.getValue()) {
+                merged.add(e.getKey(), path);
+            }
+        }
+
+        merged.unowned.addAll(unowned);
+        merged.unowned.addAll(partial.unowned);
+
+        return merged;
+    }
+
+    private void add(String className, String path) {
+        byClass.computeIfAbsent(className, k -> new TreeSet<>()).add(path);
+    }
+
+    private static List<String> split(String value) {
+        if (value == null || value.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(value.split(","));
+    }
+
+    private static String read(Resource resource) throws Exception {
+        try (InputStream in = resource.openInputStream()) {
+            return new String(IO.read(in), StandardCharsets.UTF_8);
+        }
+    }
+}
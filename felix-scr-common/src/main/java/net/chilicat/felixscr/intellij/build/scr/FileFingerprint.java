@@ -0,0 +1,104 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Cheap identity of a file on disk: canonical path, size and modification time.
+ */
+public final class FileFingerprint {
+
+    private final String path;
+
+    private final long length;
+
+    private final long lastModified;
+
+    public FileFingerprint(String path, long length, long lastModified) {
+        this.path = path;
+        this.length = length;
+        this.lastModified = lastModified;
+    }
+
+    public static FileFingerprint of(File file) throws IOException {
+        return new FileFingerprint(file.getCanonicalPath(), file.length(), file.lastModified());
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Computes a digest of the file content.
+     *
+     * @param file the file to hash.
+     * @return the hex encoded SHA-1 of the file content.
+     */
+    public static String contentDigest(File file) throws IOException {
+        final MessageDigest digest = newDigest();
+        final byte[] buffer = new byte[8192];
+
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FileFingerprint)) {
+            return false;
+        }
+        FileFingerprint that = (FileFingerprint) o;
+        return length == that.length && lastModified == that.lastModified && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = path.hashCode();
+        result = 31 * result + (int) (length ^ (length >>> 32));
+        result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return path + ":" + length + ":" + lastModified;
+    }
+}
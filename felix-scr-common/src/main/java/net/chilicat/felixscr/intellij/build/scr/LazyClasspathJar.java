@@ -0,0 +1,158 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Resource;
+
+/**
+ * A classpath archive which is opened through the {@link ClasspathCache} when a lookup needs its content.
+ * Manifest and package directories come from its {@link ClasspathCache.Summary}, so lookups for packages
+ * the entry does not contain and bnd's scan of classpath manifests leave it closed.
+ * <p>
+ * bnd lists the packages of entries without a manifest, those are opened by the analysis.
+ */
+final class LazyClasspathJar extends Jar {
+
+    private final File file;
+
+    private final ClasspathCache.Summary summary;
+
+    private final ClasspathCache cache;
+
+    private final ScrMetrics metrics;
+
+    private volatile Jar jar;
+
+    LazyClasspathJar(File file, ClasspathCache.Summary summary, ClasspathCache cache, ScrMetrics metrics) {
+        super(file.getName());
+        this.file = file;
+        this.summary = summary;
+        this.cache = cache;
+        this.metrics = metrics;
+
+        if (summary.getManifest() != null) {
+            setManifest(summary.getManifest());
+        }
+    }
+
+    /**
+     * @return true if the content of the entry has been needed.
+     */
+    boolean isOpened() {
+        return jar != null;
+    }
+
+    /**
+     * @return package directories, see {@link ClasspathCache.Summary#getPackages()}.
+     */
+    Set<String> getPackageDirectories() {
+        return summary.getPackages();
+    }
+
+    private Jar open() {
+        Jar j = jar;
+        if (j == null) {
+            synchronized (this) {
+                j = jar;
+                if (j == null) {
+                    try (ScrMetrics.Span ignored = metrics.time(ScrMetrics.Phase.CLASSPATH_JARS)) {
+                        j = cache.open(file, metrics);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    jar = j;
+                }
+            }
+        }
+        return j;
+    }
+
+    private boolean mayContain(String path) {
+        final int slash = path.lastIndexOf('/');
+        return summary.getPackages().contains(slash < 0 ? "" : path.substring(0, slash));
+    }
+
+    @Override
+    public File getSource() {
+        return file;
+    }
+
+    @Override
+    public long lastModified() {
+        return file.lastModified();
+    }
+
+    @Override
+    public Resource getResource(String path) {
+        return mayContain(path) ? open().getResource(path) : null;
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return mayContain(path) && open().exists(path);
+    }
+
+    @Override
+    public Map<String, Map<String, Resource>> getDirectories() {
+        return open().getDirectories();
+    }
+
+    @Override
+    public Map<String, Resource> getDirectory(String path) {
+        return open().getDirectory(path);
+    }
+
+    @Override
+    public boolean hasDirectory(String path) {
+        return open().hasDirectory(path);
+    }
+
+    @Override
+    public Map<String, Resource> getResources() {
+        return open().getResources();
+    }
+
+    @Override
+    public Stream<Resource> getResources(Predicate<String> matches) {
+        return open().getResources(matches);
+    }
+
+    @Override
+    public Stream<String> getResourceNames(Predicate<String> matches) {
+        return open().getResourceNames(matches);
+    }
+
+    @Override
+    public List<String> getPackages() {
+        return open().getPackages();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return summary.getPackages().isEmpty();
+    }
+
+    /**
+     * Gives an opened archive back to the cache.
+     */
+    @Override
+    public void close() {
+        final Jar j;
+        synchronized (this) {
+            j = jar;
+            jar = null;
+        }
+        if (j != null) {
+            j.close();
+        }
+        super.close();
+    }
+}
@@ -0,0 +1,205 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Digest over everything the descriptor generation of a module depends on: the content of the module's
+ * class files, the classpath entries and the effective settings.
+ * <p>
+ * Class file digests are remembered with size and modification time, so only touched class files are
+ * read again. Content digests keep the fingerprint stable when a rebuild recreates identical class files.
+ */
+final class ModuleFingerprint {
+
+    static final String FILE_NAME = "module-fingerprint.properties";
+
+    private static final String DIGEST_KEY = "digest";
+
+    private static final String CLASS_PREFIX = "class.";
+
+    private final String digest;
+
+    private final Map<String, ClassEntry> classes;
+
+    private ModuleFingerprint(String digest, Map<String, ClassEntry> classes) {
+        this.digest = digest;
+        this.classes = classes;
+    }
+
+    /**
+     * @param classDir           the module output.
+     * @param classpath          the classpath entries of the module, the module output is ignored.
+     * @param settings           key of the effective settings.
+     * @param previous           fingerprint of the previous run or null.
+     * @param directoryDigests   digests of classpath directories which are known to be unchanged, will be updated.
+     * @return the fingerprint.
+     */
+    static ModuleFingerprint compute(File classDir,
+                                     Collection<File> classpath,
+                                     String settings,
+                                     ModuleFingerprint previous,
+                                     Map<String, String> directoryDigests) throws IOException {
+
+        final Map<String, ClassEntry> classes = new TreeMap<>();
+        final Path root = classDir.toPath();
+
+        if (classDir.isDirectory()) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (file.getFileName().toString().endsWith(".class")) {
+                        final String relativePath = root.relativize(file).toString().replace(File.separatorChar, '/');
+                        final long length = attrs.size();
+                        final long lastModified = attrs.lastModifiedTime().toMillis();
+
+                        ClassEntry entry = previous != null ? previous.classes.get(relativePath) : null;
+                        if (entry == null || entry.length != length || entry.lastModified != lastModified) {
+                            entry = new ClassEntry(length, lastModified, FileFingerprint.contentDigest(file.toFile()));
+                        }
+
+                        classes.put(relativePath, entry);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        final MessageDigest md = FileFingerprint.newDigest();
+
+        update(md, "settings:" + settings);
+
+        for (Map.Entry<String, ClassEntry> e : classes.entrySet()) {
+            update(md, "class:" + e.getKey() + ":" + e.getValue().digest);
+        }
+
+        final String classDirPath = classDir.getCanonicalPath();
+
+        for (File entry : classpath) {
+            final String path = entry.getCanonicalPath();
+
+            if (path.equals(classDirPath)) {
+                continue;
+            }
+
+            if (entry.isDirectory()) {
+                String directoryDigest = directoryDigests.get(path);
+                if (directoryDigest == null) {
+                    directoryDigest = directoryDigest(entry);
+                    directoryDigests.put(path, directoryDigest);
+                }
+                update(md, "dir:" + path + ":" + directoryDigest);
+            } else {
+                update(md, "file:" + FileFingerprint.of(entry));
+            }
+        }
+
+        return new ModuleFingerprint(FileFingerprint.toHex(md.digest()), classes);
+    }
+
+    /**
+     * A cheap digest over names, sizes and modification times of all files in a directory.
+     */
+    private static String directoryDigest(File dir) throws IOException {
+        final MessageDigest md = FileFingerprint.newDigest();
+        final Path root = dir.toPath();
+        final SortedMap<String, String> files = new TreeMap<>();
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.put(root.relativize(file).toString(), attrs.size() + ":" + attrs.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        for (Map.Entry<String, String> e : files.entrySet()) {
+            update(md, e.getKey() + ":" + e.getValue());
+        }
+
+        return FileFingerprint.toHex(md.digest());
+    }
+
+    private static void update(MessageDigest md, String value) {
+        md.update(value.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) '\n');
+    }
+
+    static ModuleFingerprint load(File stateDir) throws IOException {
+        final File file = new File(stateDir, FILE_NAME);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        }
+
+        final Map<String, ClassEntry> classes = new TreeMap<>();
+
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(CLASS_PREFIX)) {
+                final String[] values = properties.getProperty(key).split(",");
+                if (values.length == 3) {
+                    classes.put(key.substring(CLASS_PREFIX.length()), new ClassEntry(Long.parseLong(values[0]), Long.parseLong(values[1]), values[2]));
+                }
+            }
+        }
+
+        return new ModuleFingerprint(properties.getProperty(DIGEST_KEY, ""), classes);
+    }
+
+    static void delete(File stateDir) throws IOException {
+        Files.deleteIfExists(new File(stateDir, FILE_NAME).toPath());
+    }
+
+    void save(File stateDir) throws IOException {
+        if (!stateDir.isDirectory() && !stateDir.mkdirs()) {
+            throw new IOException("Cannot create " + stateDir);
+        }
+
+        final Properties properties = new Properties();
+        properties.setProperty(DIGEST_KEY, digest);
+
+        for (Map.Entry<String, ClassEntry> e : classes.entrySet()) {
+            final ClassEntry c = e.getValue();
+            properties.setProperty(CLASS_PREFIX + e.getKey(), c.length + "," + c.lastModified + "," + c.digest);
+        }
+
+        try (OutputStream out = Files.newOutputStream(new File(stateDir, FILE_NAME).toPath())) {
+            properties.store(out, "Felix SCR module fingerprint");
+        }
+    }
+
+    String getDigest() {
+        return digest;
+    }
+
+    boolean matches(ModuleFingerprint other) {
+        return other != null && digest.equals(other.digest);
+    }
+
+    private static final class ClassEntry {
+        private final long length;
+        private final long lastModified;
+        private final String digest;
+
+        private ClassEntry(long length, long lastModified, String digest) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
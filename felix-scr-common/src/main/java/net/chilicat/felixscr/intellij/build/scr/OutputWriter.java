@@ -0,0 +1,114 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes build outputs only if their content changed, so unchanged files keep their modification time
+ * and do not trigger artifact builds or file watchers. Files are replaced atomically.
+ */
+final class OutputWriter {
+
+    private OutputWriter() {
+    }
+
+    /**
+     * @param file    the output file, parent directories are created.
+     * @param content the new content.
+     * @return true if the file has been written, false if it already had the given content.
+     */
+    static boolean writeIfChanged(File file, byte[] content) throws IOException {
+        final Path target = file.toPath();
+
+        if (hasContent(target, content)) {
+            return false;
+        }
+
+        final Path dir = target.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+
+        final Path temp = tempFile(dir, file);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+
+            move(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        return true;
+    }
+
+    /**
+     * Replaces a file with a copy of another one, readers see either the old or the new content.
+     */
+    static void replace(File source, File file) throws IOException {
+        final Path temp = tempFile(file.toPath().toAbsolutePath().getParent(), file);
+        try {
+            Files.copy(source.toPath(), temp);
+            move(temp, file.toPath());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static Path tempFile(Path dir, File file) {
+        // not Files.createTempFile(), its files are only readable by the owner.
+        return dir.resolve("." + file.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+    }
+
+    private static void move(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static boolean hasContent(Path file, byte[] content) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+
+        // java.util.Properties writes a time stamp comment on every store.
+        if (file.getFileName().toString().endsWith(".properties")) {
+            return withoutComments(Files.readAllBytes(file)).equals(withoutComments(content));
+        }
+
+        if (Files.size(file) != content.length) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer existing = ByteBuffer.allocate(content.length);
+            while (existing.hasRemaining() && channel.read(existing) != -1) {
+                // read fully
+            }
+            return !existing.hasRemaining() && Arrays.equals(existing.array(), content);
+        }
+    }
+
+    private static String withoutComments(byte[] properties) {
+        final StringBuilder sb = new StringBuilder(properties.length);
+        for (String line : new String(properties, StandardCharsets.ISO_8859_1).split("\r?\n")) {
+            if (!line.startsWith("#")) {
+                sb.append(line).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,130 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Resource;
+
+/**
+ * Maps package directories to the classpath entries which contain them, so a resource lookup asks only
+ * the entries of its package instead of every entry in classpath order.
+ * <p>
+ * Most lookups of an analysis are for JDK and other types which are not on the classpath at all. A Bloom
+ * filter over the package names answers those without allocating the package name.
+ */
+final class PackageIndex {
+
+    private static final int HASHES = 3;
+
+    private static final int BITS_PER_PACKAGE = 10;
+
+    private final Map<String, Jar[]> packages = new HashMap<>();
+
+    private final BitSet filter;
+
+    private final int bits;
+
+    /**
+     * @param classpath the classpath entries in lookup order, their content must not change while the
+     *                  index is used.
+     */
+    PackageIndex(List<Jar> classpath) {
+        final Map<String, List<Jar>> entries = new HashMap<>();
+        for (Jar jar : classpath) {
+            // lazy entries stay closed until one of their packages is asked for.
+            final Iterable<String> dirs = jar instanceof LazyClasspathJar
+                ? ((LazyClasspathJar) jar).getPackageDirectories()
+                : jar.getDirectories().keySet();
+            for (String dir : dirs) {
+                entries.computeIfAbsent(dir, d -> new ArrayList<>(1)).add(jar);
+            }
+        }
+
+        bits = Integer.highestOneBit(Math.max(64, entries.size() * BITS_PER_PACKAGE) - 1) << 1;
+        filter = new BitSet(bits);
+
+        for (Map.Entry<String, List<Jar>> e : entries.entrySet()) {
+            packages.put(e.getKey(), e.getValue().toArray(new Jar[0]));
+
+            final String dir = e.getKey();
+            final int h1 = hash(dir, dir.length());
+            final int h2 = secondHash(dir, dir.length());
+            for (int i = 0; i < HASHES; i++) {
+                filter.set((h1 + i * h2) & (bits - 1));
+            }
+        }
+    }
+
+    /**
+     * @param path a resource path like {@code org/example/Foo.class}.
+     * @return the resource of the first entry which contains it or null.
+     */
+    Resource findResource(String path) {
+        final int end = Math.max(0, path.lastIndexOf('/'));
+
+        if (!mightContain(path, end)) {
+            return null;
+        }
+
+        final Jar[] jars = packages.get(path.substring(0, end));
+        if (jars == null) {
+            return null;
+        }
+
+        for (Jar jar : jars) {
+            final Resource resource = jar.getResource(path);
+            if (resource != null) {
+                return resource;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return number of indexed package directories.
+     */
+    int size() {
+        return packages.size();
+    }
+
+    /**
+     * @param end the end of the package directory in the path.
+     * @return false if the package is certainly not indexed.
+     */
+    boolean mightContain(String path, int end) {
+        final int h1 = hash(path, end);
+        final int h2 = secondHash(path, end);
+        for (int i = 0; i < HASHES; i++) {
+            if (!filter.get((h1 + i * h2) & (bits - 1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link String#hashCode()} of the prefix.
+     */
+    private static int hash(String s, int end) {
+        int h = 0;
+        for (int i = 0; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    /**
+     * FNV-1a of the prefix, odd so the probes of one name differ.
+     */
+    private static int secondHash(String s, int end) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < end; i++) {
+            h = (h ^ s.charAt(i)) * 0x01000193;
+        }
+        return h | 1;
+    }
+}
@@ -0,0 +1,135 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+
+import aQute.bnd.osgi.Analyzer;
+import aQute.bnd.osgi.Processor;
+import aQute.service.reporter.Reporter;
+import org.apache.felix.scrplugin.bnd.SCRDescriptorBndPlugin;
+
+/**
+ * Analysis state which is shared by all processors of a build process: the bnd defaults every builder
+ * inherits, the annotation scanner and the classpath cache.
+ * <p>
+ * The first analysis in a fresh process is several times slower than later ones because bnd, the Felix
+ * generator and the XML stack are loaded and initialized on demand. {@link #warmUp()} does this in the
+ * background while the compiler is still busy.
+ */
+public final class ScrAnalysisEngine {
+
+    private static final ScrAnalysisEngine DEFAULT = new ScrAnalysisEngine();
+
+    private static final String[] WARM_UP_CLASSES = {
+        "aQute.bnd.osgi.Builder",
+        "aQute.bnd.osgi.Clazz",
+        "aQute.bnd.osgi.Descriptors",
+        "aQute.bnd.component.DSAnnotations",
+        "aQute.bnd.component.AnnotationReader",
+        "aQute.bnd.metatype.MetatypeAnnotations",
+        "org.apache.felix.scrplugin.SCRDescriptorGenerator",
+        "org.apache.felix.scrplugin.helper.ClassScanner",
+        "org.apache.felix.scrplugin.helper.AnnotationProcessorManager",
+        "org.apache.felix.scrplugin.helper.Validator",
+        "org.apache.felix.scrplugin.processing.SCRAnnotationProcessor",
+        "org.apache.felix.scrplugin.xml.ComponentDescriptorIO",
+        "org.apache.felix.scrplugin.xml.MetaTypeIO",
+        "org.objectweb.asm.ClassReader",
+        "org.objectweb.asm.tree.ClassNode"
+    };
+
+    private final Processor defaults = new Processor();
+
+    private final AnnotationScanner annotationScanner = new AnnotationScanner();
+
+    private final AtomicBoolean warmUpStarted = new AtomicBoolean();
+
+    private final AtomicLong analyses = new AtomicLong();
+
+    public ScrAnalysisEngine() {
+        defaults.setProperty(Analyzer.DSANNOTATIONS, "*");
+        defaults.setProperty(Analyzer.METATYPE_ANNOTATIONS, "*");
+        defaults.setProperty(Analyzer.IMPORT_PACKAGE, "*");
+    }
+
+    /**
+     * @return the engine used by processors which have not been given one.
+     */
+    public static ScrAnalysisEngine getDefault() {
+        return DEFAULT;
+    }
+
+    public ClasspathCache getClasspathCache() {
+        return ClasspathCache.getInstance();
+    }
+
+    public AnnotationScanner getAnnotationScanner() {
+        return annotationScanner;
+    }
+
+    /**
+     * @return the parent of all builders created for this engine.
+     */
+    Processor getDefaults() {
+        return defaults;
+    }
+
+    /**
+     * Creates the Felix plugin for one analysis. The plugin keeps the settings and logger of its analysis
+     * in fields, so instances are not shared. Creating one is cheap, the classes and XML stack it needs are
+     * loaded once per process.
+     */
+    SCRDescriptorBndPlugin createPlugin(Reporter reporter, Map<String, String> options) {
+        final SCRDescriptorBndPlugin plugin = new SCRDescriptorBndPlugin();
+        plugin.setReporter(reporter);
+        plugin.setProperties(options);
+
+        analyses.incrementAndGet();
+
+        return plugin;
+    }
+
+    /**
+     * @return number of analyses run by this engine.
+     */
+    public long getAnalysisCount() {
+        return analyses.get();
+    }
+
+    /**
+     * Loads and initializes the analysis classes on a background thread. Only the first call has an effect.
+     */
+    public void warmUp() {
+        if (!warmUpStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        final Thread thread = new Thread(ScrAnalysisEngine::preload, "Felix SCR warm-up");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private static void preload() {
+        final ClassLoader loader = ScrAnalysisEngine.class.getClassLoader();
+
+        for (String className : WARM_UP_CLASSES) {
+            try {
+                Class.forName(className, true, loader);
+            } catch (ClassNotFoundException | LinkageError e) {
+                // optional, not every distribution of the generator ships all of them.
+            }
+        }
+
+        try {
+            ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler();
+        } catch (Exception | LinkageError e) {
+            Logger.getLogger(ScrAnalysisEngine.class.getName()).log(Level.FINE, "XML warm-up failed", e);
+        }
+    }
+}
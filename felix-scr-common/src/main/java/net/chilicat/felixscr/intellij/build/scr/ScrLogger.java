@@ -1,5 +1,7 @@
 package net.chilicat.felixscr.intellij.build.scr;
 
+import java.util.function.Supplier;
+
 public interface ScrLogger {
 
     boolean isErrorPrinted();
@@ -12,6 +14,12 @@ public interface ScrLogger {
 
     void debug(Throwable error);
 
+    /**
+     * Loggers which drop debug messages do not build the message. Loggers which keep a history build it
+     * when it is recorded.
+     */
+    void debug(Supplier<String> content);
+
     boolean isInfoEnabled();
 
     void info(String content);
@@ -43,4 +51,15 @@ public interface ScrLogger {
     void error(String content, Throwable error);
 
     void error(Throwable error);
+
+    /**
+     * Reports the recent debug messages which have not been reported because debug logging is off. Called
+     * when a module fails.
+     */
+    void dumpDebugHistory();
+
+    /**
+     * Hands buffered messages to the build, in the order they have been logged.
+     */
+    void flush();
 }
@@ -0,0 +1,304 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counters of one module run of a processor.
+ */
+public final class ScrMetrics {
+
+    public enum Phase {
+        FINGERPRINT("fingerprint"),
+        CLASSPATH("classpath"),
+        /**
+         * Opening classpath entries: directories while the classpath is set up, archives when the analysis
+         * first asks for one of their packages. The latter overlaps {@link #ANALYSIS}.
+         */
+        CLASSPATH_JARS("jars"),
+        ANALYSIS("analysis"),
+        WRITE("write"),
+        MANIFEST("manifest"),
+        CLEANUP("cleanup");
+
+        private final String id;
+
+        Phase(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    private final String moduleName;
+
+    private final ScrTraceRecorder trace;
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+
+    private final AtomicLong jarsOpened = new AtomicLong();
+
+    private final AtomicLong jarBytes = new AtomicLong();
+
+    private final AtomicLong bytesStaged = new AtomicLong();
+
+    private final AtomicLong classesAnalyzed = new AtomicLong();
+
+    private final AtomicLong componentsEmitted = new AtomicLong();
+
+    private volatile List<String> classpathOpened = Collections.emptyList();
+
+    private volatile List<String> classpathSkipped = Collections.emptyList();
+
+    private volatile long totalNanos = -1;
+
+    private volatile boolean upToDate;
+
+    private volatile boolean success;
+
+    public ScrMetrics(String moduleName) {
+        this(moduleName, null);
+    }
+
+    /**
+     * @param trace receives a span for the module and each measured phase, may be null.
+     */
+    public ScrMetrics(String moduleName, ScrTraceRecorder trace) {
+        this.moduleName = moduleName;
+        this.trace = trace;
+    }
+
+    /**
+     * Measures a phase until the returned span is closed, meant for try-with-resources.
+     */
+    public Span time(Phase phase) {
+        return new Span(phase);
+    }
+
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    public long getTotalNanos() {
+        return totalNanos >= 0 ? totalNanos : System.nanoTime() - startNanos;
+    }
+
+    public long getJarsOpened() {
+        return jarsOpened.get();
+    }
+
+    /**
+     * @return size of the archives which had to be opened, not what the analysis read from them.
+     */
+    public long getJarBytes() {
+        return jarBytes.get();
+    }
+
+    /**
+     * @return size of the class files handed to the analysis.
+     */
+    public long getBytesStaged() {
+        return bytesStaged.get();
+    }
+
+    public long getClassesAnalyzed() {
+        return classesAnalyzed.get();
+    }
+
+    public long getComponentsEmitted() {
+        return componentsEmitted.get();
+    }
+
+    /**
+     * @return classpath archives the analysis needed, directories are always read.
+     */
+    public List<String> getClasspathOpened() {
+        return classpathOpened;
+    }
+
+    /**
+     * @return classpath archives which have never been opened.
+     */
+    public List<String> getClasspathSkipped() {
+        return classpathSkipped;
+    }
+
+    public boolean isUpToDate() {
+        return upToDate;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    void jarOpened(long bytes) {
+        jarsOpened.incrementAndGet();
+        jarBytes.addAndGet(bytes);
+    }
+
+    void bytesStaged(long bytes) {
+        bytesStaged.addAndGet(bytes);
+    }
+
+    void classesAnalyzed(long count) {
+        classesAnalyzed.addAndGet(count);
+    }
+
+    void componentsEmitted(long count) {
+        componentsEmitted.addAndGet(count);
+    }
+
+    void classpathEntries(List<String> opened, List<String> skipped) {
+        classpathOpened = Collections.unmodifiableList(opened);
+        classpathSkipped = Collections.unmodifiableList(skipped);
+    }
+
+    void upToDate() {
+        upToDate = true;
+    }
+
+    void finish(boolean success) {
+        this.success = success;
+        this.totalNanos = System.nanoTime() - startNanos;
+
+        if (trace != null) {
+            trace.complete(moduleName, "module", moduleName, startNanos);
+        }
+    }
+
+    /**
+     * @return one line for the build log, without the module name.
+     */
+    public String toSummary() {
+        final StringBuilder sb = new StringBuilder("Finished in ").append(millis(getTotalNanos())).append(" ms");
+
+        if (upToDate) {
+            sb.append(" (up to date)");
+        }
+
+        sb.append(':');
+        for (Phase phase : Phase.values()) {
+            final long nanos = getPhaseNanos(phase);
+            if (nanos > 0) {
+                sb.append(' ').append(phase.getId()).append(' ').append(millis(nanos)).append(" ms,");
+            }
+        }
+
+        final int entries = classpathOpened.size() + classpathSkipped.size();
+        if (entries > 0) {
+            sb.append(' ').append(classpathOpened.size()).append(" of ").append(entries).append(" classpath archives used,");
+        }
+
+        sb.append(' ').append(getJarsOpened()).append(" jars opened (")
+            .append(getJarBytes() / 1024).append(" KB), ")
+            .append(getBytesStaged() / 1024).append(" KB of classes staged, ")
+            .append(getClassesAnalyzed()).append(" classes analyzed, ")
+            .append(getComponentsEmitted()).append(" components");
+
+        return sb.toString();
+    }
+
+    public String toJson() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("{\"module\": ").append(quote(moduleName))
+            .append(", \"success\": ").append(success)
+            .append(", \"upToDate\": ").append(upToDate)
+            .append(", \"totalNanos\": ").append(getTotalNanos())
+            .append(", \"phases\": {");
+
+        final Phase[] phases = Phase.values();
+        for (int i = 0; i < phases.length; i++) {
+            sb.append(i > 0 ? ", " : "").append(quote(phases[i].getId())).append(": ").append(getPhaseNanos(phases[i]));
+        }
+
+        sb.append("}, \"jarsOpened\": ").append(getJarsOpened())
+            .append(", \"jarBytes\": ").append(getJarBytes())
+            .append(", \"bytesStaged\": ").append(getBytesStaged())
+            .append(", \"classesAnalyzed\": ").append(getClassesAnalyzed())
+            .append(", \"componentsEmitted\": ").append(getComponentsEmitted())
+            .append(", \"classpathOpened\": ");
+        appendArray(sb, classpathOpened);
+        sb.append(", \"classpathSkipped\": ");
+        appendArray(sb, classpathSkipped);
+        sb.append('}');
+
+        return sb.toString();
+    }
+
+    private static void appendArray(StringBuilder sb, List<String> values) {
+        sb.append('[');
+        for (Iterator<String> it = values.iterator(); it.hasNext(); ) {
+            sb.append(quote(it.next())).append(it.hasNext() ? ", " : "");
+        }
+        sb.append(']');
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * @return the value as JSON string literal.
+     */
+    public static String quote(String value) {
+        final StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public final class Span implements AutoCloseable {
+        private final Phase phase;
+        private final long start = System.nanoTime();
+
+        private Span(Phase phase) {
+            this.phase = phase;
+        }
+
+        @Override
+        public void close() {
+            phaseNanos.addAndGet(phase.ordinal(), System.nanoTime() - start);
+
+            if (trace != null) {
+                trace.complete(phase.getId(), "phase", moduleName, start);
+            }
+        }
+    }
+}
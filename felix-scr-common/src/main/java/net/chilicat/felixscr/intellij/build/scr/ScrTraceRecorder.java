@@ -0,0 +1,88 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records module and phase spans of all processors of a build, with the thread they ran on, and renders
+ * them in the Chrome trace event format (chrome://tracing, Perfetto, Speedscope).
+ */
+public final class ScrTraceRecorder {
+
+    private final long originNanos = System.nanoTime();
+
+    private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+
+    private final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+
+    /**
+     * Records a span which ended now on the current thread.
+     *
+     * @param name       e.g. the module or the phase.
+     * @param category   "module" or "phase".
+     * @param module     the module the span belongs to.
+     * @param startNanos {@link System#nanoTime()} at the start of the span.
+     */
+    public void complete(String name, String category, String module, long startNanos) {
+        final long endNanos = System.nanoTime();
+        final Thread thread = Thread.currentThread();
+
+        threadNames.putIfAbsent(thread.getId(), thread.getName());
+        events.add(new Event(name, category, module, thread.getId(), startNanos - originNanos, endNanos - startNanos));
+    }
+
+    public boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    /**
+     * @return a JSON object with a traceEvents array, times are microseconds since the recorder was created.
+     */
+    public String toJson() {
+        final StringBuilder sb = new StringBuilder("{\"traceEvents\": [");
+        boolean first = true;
+
+        for (Map.Entry<Long, String> e : threadNames.entrySet()) {
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("{\"name\": \"thread_name\", \"ph\": \"M\", \"pid\": 1, \"tid\": ").append(e.getKey())
+                .append(", \"args\": {\"name\": ").append(ScrMetrics.quote(e.getValue())).append("}}");
+        }
+
+        for (Iterator<Event> it = events.iterator(); it.hasNext(); ) {
+            final Event e = it.next();
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("{\"name\": ").append(ScrMetrics.quote(e.name))
+                .append(", \"cat\": ").append(ScrMetrics.quote(e.category))
+                .append(", \"ph\": \"X\", \"pid\": 1, \"tid\": ").append(e.threadId)
+                .append(", \"ts\": ").append(TimeUnit.NANOSECONDS.toMicros(e.startNanos))
+                .append(", \"dur\": ").append(TimeUnit.NANOSECONDS.toMicros(e.durationNanos))
+                .append(", \"args\": {\"module\": ").append(ScrMetrics.quote(e.module)).append("}}");
+        }
+
+        return sb.append("\n], \"displayTimeUnit\": \"ms\"}\n").toString();
+    }
+
+    private static final class Event {
+        private final String name;
+        private final String category;
+        private final String module;
+        private final long threadId;
+        private final long startNanos;
+        private final long durationNanos;
+
+        private Event(String name, String category, String module, long threadId, long startNanos, long durationNanos) {
+            this.name = name;
+            this.category = category;
+            this.module = module;
+            this.threadId = threadId;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Output directory handed to the Felix generator.
+ * <p>
+ * The generator removes obsolete files from its output directory and rewrites class files when it
+ * generates accessors. Class files are therefore hard linked into the staging directory, so accessor
+ * changes end up in the class output while descriptors stay in the staging directory. If a link
+ * cannot be created the class file is copied and copied back when it has been modified.
+ * <p>
+ * If other builders might read the class output at the same time, class files are always copied and
+ * replaced atomically, the generator itself writes them in place.
+ */
+final class StagingDir implements Closeable {
+
+    private final File dir;
+
+    private final Map<File, Copy> copies = new HashMap<>();
+
+    private final boolean link;
+
+    private StagingDir(File dir, boolean link) {
+        this.dir = dir;
+        this.link = link;
+    }
+
+    /**
+     * @param parent directory to create the staging directory in, or null for the temp directory.
+     * @param link   false if class files must be copied and replaced atomically.
+     */
+    static StagingDir create(File parent, boolean link) throws IOException {
+        if (parent != null && (parent.isDirectory() || parent.mkdirs())) {
+            return new StagingDir(Files.createTempDirectory(parent.toPath(), "staging").toFile(), link);
+        }
+        return new StagingDir(Files.createTempDirectory("felix-scr").toFile(), link);
+    }
+
+    File getDir() {
+        return dir;
+    }
+
+    void stage(String relativePath, File original) throws IOException {
+        final File target = new File(dir, relativePath);
+        final File parent = target.getParentFile();
+
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+
+        if (link) {
+            try {
+                Files.createLink(target.toPath(), original.toPath());
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                // copy it
+            }
+        }
+
+        Files.copy(original.toPath(), target.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+        copies.put(target, new Copy(original, target.length(), target.lastModified()));
+    }
+
+    /**
+     * Copies class files back which have been modified in the staging directory.
+     */
+    void syncBack() throws IOException {
+        for (Map.Entry<File, Copy> e : copies.entrySet()) {
+            final File staged = e.getKey();
+            final Copy copy = e.getValue();
+
+            if (staged.length() != copy.length || staged.lastModified() != copy.lastModified) {
+                OutputWriter.replace(staged, copy.original);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static final class Copy {
+        private final File original;
+        private final long length;
+        private final long lastModified;
+
+        private Copy(File original, long length, long lastModified) {
+            this.original = original;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Superclasses of the classes of a module output, read from the class file header on demand. Felix
+ * components inherit the annotations of their superclasses, so a component has to be analyzed again when
+ * a class anywhere in its superclass chain changed, even if javac did not rewrite the component itself.
+ * <p>
+ * Only classes of the module output are followed, the chain ends at the first class of another module.
+ */
+final class SuperclassIndex {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private final File classDir;
+
+    /**
+     * class name to its superclass, null for classes which are not part of the output.
+     */
+    private final Map<String, String> superclasses = new HashMap<>();
+
+    SuperclassIndex(File classDir) {
+        this.classDir = classDir;
+    }
+
+    /**
+     * @param classes        the classes to check, like the components of the previous run.
+     * @param changedClasses classes whose class file changed.
+     * @return the given classes which are not changed themselves but extend a changed class.
+     */
+    Set<String> findSubclassesOf(Collection<String> classes, Set<String> changedClasses) throws IOException {
+        final Set<String> subclasses = new TreeSet<>();
+
+        if (changedClasses.isEmpty()) {
+            return subclasses;
+        }
+
+        for (String className : classes) {
+            if (!changedClasses.contains(className) && extendsAny(className, changedClasses)) {
+                subclasses.add(className);
+            }
+        }
+
+        return subclasses;
+    }
+
+    private boolean extendsAny(String className, Set<String> changedClasses) throws IOException {
+        final Set<String> visited = new HashSet<>();
+
+        String current = getSuperclass(className);
+        while (current != null && visited.add(current)) {
+            if (changedClasses.contains(current)) {
+                return true;
+            }
+            current = getSuperclass(current);
+        }
+
+        return false;
+    }
+
+    private String getSuperclass(String className) throws IOException {
+        if (superclasses.containsKey(className)) {
+            return superclasses.get(className);
+        }
+
+        final File classFile = new File(classDir, className.replace('.', File.separatorChar) + ".class");
+        final String superclass = classFile.isFile() ? readSuperclass(Files.readAllBytes(classFile.toPath())) : null;
+
+        superclasses.put(className, superclass);
+        return superclass;
+    }
+
+    /**
+     * Walks the constant pool up to the super_class entry of the header.
+     *
+     * @return the binary name of the superclass, null for java.lang.Object and unknown class file layouts.
+     */
+    static String readSuperclass(byte[] bytes) {
+        try {
+            final ByteBuffer in = ByteBuffer.wrap(bytes);
+
+            if (in.getInt() != MAGIC) {
+                return null;
+            }
+
+            in.getShort(); // minor
+            in.getShort(); // major
+
+            final int count = in.getShort() & 0xFFFF;
+
+            // Utf8 entries by index and the name index of Class entries.
+            final int[] utf8Offsets = new int[count];
+            final int[] classNames = new int[count];
+
+            for (int i = 1; i < count; i++) {
+                final int tag = in.get() & 0xFF;
+
+                switch (tag) {
+                    case 1: // Utf8
+                        final int length = in.getShort() & 0xFFFF;
+                        utf8Offsets[i] = in.position() - 2;
+                        in.position(in.position() + length);
+                        break;
+                    case 7: // Class
+                        classNames[i] = in.getShort() & 0xFFFF;
+                        break;
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        in.position(in.position() + 2);
+                        break;
+                    case 15: // MethodHandle
+                        in.position(in.position() + 3);
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        in.position(in.position() + 4);
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        in.position(in.position() + 8);
+                        i++;
+                        break;
+                    default:
+                        return null;
+                }
+            }
+
+            in.getShort(); // access flags
+            in.getShort(); // this_class
+
+            final int superIndex = in.getShort() & 0xFFFF;
+            if (superIndex == 0) {
+                return null;
+            }
+
+            final int offset = utf8Offsets[classNames[superIndex]];
+            if (classNames[superIndex] == 0 || offset == 0) {
+                return null;
+            }
+
+            final int length = ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+
+            // class names of the output are ASCII in practice, non ASCII names only need to be unique here.
+            final String name = new String(bytes, offset + 2, length, StandardCharsets.UTF_8).replace('/', '.');
+            return "java.lang.Object".equals(name) ? null : name;
+        } catch (RuntimeException e) {
+            // truncated or otherwise broken, the chain ends here.
+            return null;
+        }
+    }
+}
@@ -5,6 +5,23 @@ public interface ScrSettings {
     String SPEC_1_1 = "1.1";
     String SPEC_1_2 = "1.2";
 
+    /**
+     * Descriptors are generated while the module is built.
+     */
+    String EXECUTION_INLINE = "inline";
+
+    /**
+     * Descriptors are generated on a worker pool after the module has been compiled, the build waits for
+     * them before it finishes.
+     */
+    String EXECUTION_ASYNC = "async";
+
+    /**
+     * Descriptors are generated by a build target of their own, which JPS schedules after the module and
+     * checks for being up to date like any other target.
+     */
+    String EXECUTION_TARGET = "target";
+
     boolean isOptimizedBuild();
 
     void setOptimizedBuild(boolean optimizedBuild);
@@ -30,4 +47,22 @@ public interface ScrSettings {
     void setDebugLogging(boolean debug);
 
     boolean isDebugLogging();
+
+    /**
+     * @return true if the Service-Component header lists every descriptor instead of {@code OSGI-INF/*.xml}.
+     */
+    boolean isExplicitServiceComponents();
+
+    void setExplicitServiceComponents(boolean explicitServiceComponents);
+
+    String getExecutionMode();
+
+    void setExecutionMode(String executionMode);
+
+    /**
+     * @return true if module and phase timings of a build are written in the Chrome trace event format.
+     */
+    boolean isTraceExport();
+
+    void setTraceExport(boolean traceExport);
 }
@@ -0,0 +1,90 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ClassSourceIndexTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File sourceDir;
+
+    private File components;
+
+    @Before
+    public void writeSources() throws IOException {
+        sourceDir = temp.newFolder("src");
+
+        write("p/Service.java", "package p; public class Service { }");
+        components = write("p/Components.java", "package p;\n"
+            + "\n"
+            + "class Plain { }\n"
+            + "\n"
+            + "@Component\n"
+            + "class OwnLine { }\n"
+            + "\n"
+            + "@Component class SameLine { }\n"
+            + "\n"
+            + "@Component public class PublicAfterAnnotation { }\n"
+            + "\n"
+            + "@Component(immediate = true, property = {\"filter=(a=b)\"}) final class WithArguments {\n"
+            + "    static class Nested { }\n"
+            + "}\n"
+            + "\n"
+            + "@Deprecated @org.apache.felix.scr.annotations.Component(\n"
+            + "    name = \"multi\")\n"
+            + "abstract class MultiLine { }\n"
+            + "\n"
+            + "public @Deprecated interface BetweenModifiers { }\n"
+            + "\n"
+            + "@Retention(RUNTIME) @interface Marker { }\n");
+    }
+
+    @Test
+    public void findsSourceOfOwnFile() {
+        assertEquals(new File(sourceDir, "p/Service.java"), index().findSource("p/Service"));
+    }
+
+    @Test
+    public void findsDeclarationsAfterAnnotations() {
+        final ClassSourceIndex index = index();
+
+        assertEquals(components, index.findSource("p/Plain"));
+        assertEquals(components, index.findSource("p/OwnLine"));
+        assertEquals(components, index.findSource("p/SameLine"));
+        assertEquals(components, index.findSource("p/PublicAfterAnnotation"));
+        assertEquals(components, index.findSource("p/WithArguments"));
+        assertEquals(components, index.findSource("p/WithArguments$Nested"));
+        assertEquals(components, index.findSource("p/MultiLine"));
+        assertEquals(components, index.findSource("p/BetweenModifiers"));
+        assertEquals(components, index.findSource("p/Marker"));
+    }
+
+    @Test
+    public void unknownClassHasNoSource() {
+        assertNull(index().findSource("p/Missing"));
+        assertNull(index().findSource("q/Plain"));
+    }
+
+    private ClassSourceIndex index() {
+        return ClassSourceIndex.create(new File[]{sourceDir});
+    }
+
+    private File write(String path, String content) throws IOException {
+        final File file = new File(sourceDir, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
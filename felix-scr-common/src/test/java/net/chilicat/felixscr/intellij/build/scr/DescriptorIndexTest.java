@@ -0,0 +1,137 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import aQute.bnd.osgi.EmbeddedResource;
+import aQute.bnd.osgi.Resource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DescriptorIndexTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void componentsAreOwnedByTheirImplementation() throws Exception {
+        final Map<String, Resource> generated = new TreeMap<>();
+        generated.put("OSGI-INF/p.Service.xml", xml(
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<components xmlns:scr=\"http://www.osgi.org/xmlns/scr/v1.1.0\">\n"
+                + "    <scr:component enabled=\"true\" immediate=\"true\" name=\"p.Service\">\n"
+                + "        <implementation class=\"p.Service\"/>\n"
+                + "        <reference name=\"dependency\" interface=\"java.lang.Runnable\"/>\n"
+                + "    </scr:component>\n"
+                + "</components>\n"));
+        generated.put("OSGI-INF/p.Other.xml", xml(
+            "<component name=\"other\"><implementation class=\"p.Other\"/></component>"));
+
+        final DescriptorIndex index = DescriptorIndex.create("settings", generated);
+
+        assertEquals(new HashSet<>(Arrays.asList("p.Other", "p.Service")), index.getClasses());
+        assertEquals(Collections.singleton("OSGI-INF/p.Service.xml"), index.getPaths("p.Service"));
+        assertEquals(Collections.singleton("OSGI-INF/p.Other.xml"), index.getPaths("p.Other"));
+        assertTrue(index.getPathsNotOwnedBy(index.getClasses()).isEmpty());
+    }
+
+    @Test
+    public void oneDescriptorForSeveralComponents() throws Exception {
+        final Map<String, Resource> generated = new TreeMap<>();
+        generated.put("OSGI-INF/serviceComponents.xml", xml(
+            "<components>"
+                + "<scr:component name=\"a\"><implementation class=\"p.A\"/></scr:component>"
+                + "<scr:component name=\"b\"><implementation class=\"p.B\"/></scr:component>"
+                + "</components>"));
+
+        final DescriptorIndex index = DescriptorIndex.create("settings", generated);
+
+        assertEquals(Collections.singleton("OSGI-INF/serviceComponents.xml"), index.getPaths("p.A"));
+        assertEquals(Collections.singleton("OSGI-INF/serviceComponents.xml"), index.getPaths("p.B"));
+        assertTrue(index.isOwnedByOtherThan("OSGI-INF/serviceComponents.xml", Collections.singleton("p.A")));
+    }
+
+    @Test
+    public void metatypeIsOwnedByTheDesignatedComponent() throws Exception {
+        final Map<String, Resource> generated = new TreeMap<>();
+        generated.put("OSGI-INF/p.Service.xml", xml(
+            "<scr:component name=\"service.pid\"><implementation class=\"p.Service\"/></scr:component>"));
+        generated.put("OSGI-INF/metatype/metatype.xml", xml(
+            "<metatype:MetaData xmlns:metatype=\"http://www.osgi.org/xmlns/metatype/v1.0.0\">"
+                + "<OCD id=\"service.pid\" name=\"Service\"/>"
+                + "<Designate pid=\"service.pid\"><Object ocdref=\"service.pid\"/></Designate>"
+                + "<Designate factoryPid=\"unknown.pid\"><Object ocdref=\"unknown.pid\"/></Designate>"
+                + "</metatype:MetaData>"));
+        generated.put("OSGI-INF/metatype/service.pid.properties", xml("service.name=Service"));
+
+        final DescriptorIndex index = DescriptorIndex.create("settings", generated);
+
+        assertEquals(
+            new HashSet<>(Arrays.asList(
+                "OSGI-INF/p.Service.xml",
+                "OSGI-INF/metatype/metatype.xml",
+                "OSGI-INF/metatype/service.pid.properties")),
+            index.getPaths("p.Service"));
+    }
+
+    @Test
+    public void resourcesWithoutComponentAreUnowned() throws Exception {
+        final Map<String, Resource> generated = new TreeMap<>();
+        generated.put("OSGI-INF/empty.xml", xml("<components/>"));
+        generated.put("OSGI-INF/metatype/other.xml", xml("<metatype:MetaData><Designate pid=\"nobody\"/></metatype:MetaData>"));
+        generated.put("OSGI-INF/metatype/nobody.properties", xml("name=Nobody"));
+
+        final DescriptorIndex index = DescriptorIndex.create("settings", generated);
+
+        assertTrue(index.getClasses().isEmpty());
+        assertEquals(generated.keySet(), index.getPathsNotOwnedBy(Collections.emptySet()));
+        assertEquals(generated.keySet(), index.getAllPaths());
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        final Map<String, Resource> generated = new TreeMap<>();
+        generated.put("OSGI-INF/p.A.xml", xml("<component name=\"a\"><implementation class=\"p.A\"/></component>"));
+        generated.put("OSGI-INF/empty.xml", xml("<components/>"));
+
+        final File stateDir = temp.newFolder("state");
+        DescriptorIndex.create("settings", generated).save(stateDir);
+
+        final DescriptorIndex loaded = DescriptorIndex.load(stateDir);
+
+        assertEquals("settings", loaded.getSettings());
+        assertEquals(Collections.singleton("OSGI-INF/p.A.xml"), loaded.getPaths("p.A"));
+        assertEquals(Collections.singleton("OSGI-INF/empty.xml"), loaded.getPathsNotOwnedBy(loaded.getClasses()));
+    }
+
+    @Test
+    public void stalePathsAreKeptUntilGeneratedAgain() throws Exception {
+        final Map<String, Resource> generated = new TreeMap<>();
+        generated.put("OSGI-INF/p.A.xml", xml("<component name=\"a\"><implementation class=\"p.A\"/></component>"));
+
+        final DescriptorIndex index = DescriptorIndex.create("settings", generated);
+        index.addStalePaths(Arrays.asList("OSGI-INF/p.A.xml", "OSGI-INF/p.Removed.xml"));
+
+        assertEquals(Collections.singleton("OSGI-INF/p.Removed.xml"), index.getStalePaths());
+        assertEquals(Collections.singleton("OSGI-INF/p.A.xml"), index.getAllPaths());
+
+        final File stateDir = temp.newFolder("state");
+        index.save(stateDir);
+
+        assertEquals(Collections.singleton("OSGI-INF/p.Removed.xml"), DescriptorIndex.load(stateDir).getStalePaths());
+        assertTrue(new DescriptorIndex("settings").isEmpty());
+    }
+
+    private static Resource xml(String content) {
+        return new EmbeddedResource(content.getBytes(StandardCharsets.UTF_8), 0);
+    }
+}
@@ -0,0 +1,140 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import aQute.bnd.osgi.EmbeddedResource;
+import aQute.bnd.osgi.Jar;
+import aQute.bnd.osgi.Resource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PackageIndexTest {
+
+    private static final String[] FALSE_POSITIVES = {"q1374", "q1451", "q2791", "q3156", "q3211"};
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void findsResourcesOfTheRootPackage() {
+        final Jar jar = new Jar("root");
+        final Resource root = resource("root");
+        jar.putResource("Root.class", root);
+        jar.putResource("p/A.class", resource("a"));
+
+        final PackageIndex index = new PackageIndex(Collections.singletonList(jar));
+
+        assertSame(root, index.findResource("Root.class"));
+        assertNull(index.findResource("Missing.class"));
+        assertNull(index.findResource("p"));
+    }
+
+    @Test
+    public void missesInIndexedPackagesAreNull() {
+        final Jar jar = new Jar("jar");
+        jar.putResource("p/A.class", resource("a"));
+
+        final PackageIndex index = new PackageIndex(Collections.singletonList(jar));
+
+        assertNull(index.findResource("p/Missing.class"));
+        assertNull(index.findResource("p/sub/A.class"));
+        assertNull(index.findResource("java/lang/Object.class"));
+    }
+
+    @Test
+    public void missesPassingTheFilterAreNull() {
+        final Jar jar = new Jar("jar");
+        jar.putResource("p/A.class", resource("a"));
+
+        final PackageIndex index = new PackageIndex(Collections.singletonList(jar));
+
+        // packages which are not indexed but hit the same bits as p in the 64 bit filter of one package.
+        int collisions = 0;
+        for (String dir : FALSE_POSITIVES) {
+            final String path = dir + "/A.class";
+            if (index.mightContain(path, dir.length())) {
+                collisions++;
+                assertNull(index.findResource(path));
+            }
+        }
+
+        assertTrue("none of the packages passes the filter anymore, pick new ones", collisions > 0);
+    }
+
+    @Test
+    public void firstEntryOfDuplicatePackageWins() {
+        final Jar first = new Jar("first");
+        final Resource firstA = resource("first");
+        first.putResource("p/A.class", firstA);
+
+        final Jar second = new Jar("second");
+        final Resource secondB = resource("second b");
+        second.putResource("p/A.class", resource("second"));
+        second.putResource("p/B.class", secondB);
+
+        final PackageIndex index = new PackageIndex(Arrays.asList(first, second));
+
+        assertEquals(1, index.size());
+        assertSame(firstA, index.findResource("p/A.class"));
+        assertSame(secondB, index.findResource("p/B.class"));
+    }
+
+    @Test
+    public void lazyEntriesStayClosedOnMisses() throws Exception {
+        final File archive = archive("lib.jar", "lib/Service.class", "lib/impl/Impl.class");
+        final ClasspathCache cache = new ClasspathCache();
+        final ScrMetrics metrics = new ScrMetrics("test");
+
+        final Jar output = new Jar("output");
+        final Resource local = resource("local");
+        output.putResource("lib/Service.class", local);
+
+        final LazyClasspathJar lazy = new LazyClasspathJar(archive, cache.summary(archive), cache, metrics);
+        try {
+            final PackageIndex index = new PackageIndex(Arrays.asList(output, lazy));
+
+            assertNull(index.findResource("other/Service.class"));
+            assertNull(index.findResource("Root.class"));
+            assertSame(local, index.findResource("lib/Service.class"));
+            assertFalse(lazy.isOpened());
+
+            assertNotNull(index.findResource("lib/impl/Impl.class"));
+            assertTrue(lazy.isOpened());
+        } finally {
+            lazy.close();
+            cache.clear();
+        }
+    }
+
+    private File archive(String name, String... paths) throws IOException {
+        final File file = temp.newFile(name);
+        try (OutputStream out = Files.newOutputStream(file.toPath()); JarOutputStream jar = new JarOutputStream(out)) {
+            for (String path : paths) {
+                jar.putNextEntry(new JarEntry(path));
+                jar.write(path.getBytes(StandardCharsets.UTF_8));
+                jar.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static Resource resource(String content) {
+        return new EmbeddedResource(content.getBytes(StandardCharsets.UTF_8), 0);
+    }
+}
@@ -0,0 +1,116 @@
+package net.chilicat.felixscr.intellij.build.scr;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SuperclassIndexTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File classDir;
+
+    @Before
+    public void compileHierarchy() throws IOException {
+        final File sourceDir = temp.newFolder("src");
+        classDir = temp.newFolder("classes");
+
+        final List<String> sources = new ArrayList<>();
+        sources.add(write(sourceDir, "p/AbstractService.java",
+            "package p; public abstract class AbstractService { private Runnable dependency; }"));
+        sources.add(write(sourceDir, "p/Service.java",
+            "package p; public class Service extends AbstractService { }"));
+        sources.add(write(sourceDir, "p/Middle.java",
+            "package p; public abstract class Middle extends AbstractService { }"));
+        sources.add(write(sourceDir, "p/DeepService.java",
+            "package p; public class DeepService extends Middle { public static class Nested extends DeepService { } }"));
+        sources.add(write(sourceDir, "p/Unrelated.java",
+            "package p; public class Unrelated extends Thread { }"));
+
+        final List<String> args = new ArrayList<>(Arrays.asList("-d", classDir.getPath()));
+        args.addAll(sources);
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals("compilation failed", 0, compiler.run(null, null, null, args.toArray(new String[0])));
+    }
+
+    @Test
+    public void readsSuperclassFromHeader() throws IOException {
+        assertEquals("p.AbstractService", SuperclassIndex.readSuperclass(read("p/Service.class")));
+        assertEquals("p.DeepService", SuperclassIndex.readSuperclass(read("p/DeepService$Nested.class")));
+        assertEquals("java.lang.Thread", SuperclassIndex.readSuperclass(read("p/Unrelated.class")));
+        assertNull(SuperclassIndex.readSuperclass(read("p/AbstractService.class")));
+    }
+
+    @Test
+    public void brokenClassFilesHaveNoSuperclass() {
+        assertNull(SuperclassIndex.readSuperclass(new byte[0]));
+        assertNull(SuperclassIndex.readSuperclass(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0}));
+        assertNull(SuperclassIndex.readSuperclass("not a class file".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * A private reference added to the base class does not make javac recompile the components which
+     * inherit it, they have to be analyzed again anyway.
+     */
+    @Test
+    public void findsComponentsExtendingChangedClass() throws IOException {
+        final SuperclassIndex index = new SuperclassIndex(classDir);
+
+        assertEquals(
+            new HashSet<>(Arrays.asList("p.Service", "p.DeepService", "p.DeepService$Nested")),
+            index.findSubclassesOf(
+                Arrays.asList("p.Service", "p.DeepService", "p.DeepService$Nested", "p.Unrelated"),
+                Collections.singleton("p.AbstractService")));
+    }
+
+    @Test
+    public void changedClassesAreNotReportedAgain() throws IOException {
+        final SuperclassIndex index = new SuperclassIndex(classDir);
+
+        assertArrayEquals(
+            new Object[]{"p.DeepService$Nested"},
+            index.findSubclassesOf(
+                Arrays.asList("p.Service", "p.DeepService", "p.DeepService$Nested"),
+                new HashSet<>(Arrays.asList("p.Middle", "p.DeepService"))).toArray());
+    }
+
+    @Test
+    public void chainEndsOutsideOfTheOutput() throws IOException {
+        final SuperclassIndex index = new SuperclassIndex(classDir);
+
+        assertTrue(index.findSubclassesOf(
+            Arrays.asList("p.Service", "p.Unrelated", "p.Missing"),
+            new HashSet<>(Arrays.asList("java.lang.Object", "java.lang.Runnable"))).isEmpty());
+    }
+
+    private byte[] read(String path) throws IOException {
+        return Files.readAllBytes(new File(classDir, path).toPath());
+    }
+
+    private static String write(File root, String path, String content) throws IOException {
+        final File file = new File(root, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+}
@@ -0,0 +1,475 @@
+package net.chilicat.felixscr.intellij.jps;
+
+import com.intellij.openapi.util.Key;
+import net.chilicat.felixscr.intellij.benchmarks.CorpusGenerator;
+import net.chilicat.felixscr.intellij.benchmarks.CorpusModule;
+import net.chilicat.felixscr.intellij.benchmarks.CorpusProfile;
+import net.chilicat.felixscr.intellij.settings.ScrSettings;
+import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.builders.DirtyFilesHolder;
+import org.jetbrains.jps.builders.FileProcessor;
+import org.jetbrains.jps.builders.java.JavaSourceRootDescriptor;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.ModuleBuildTarget;
+import org.jetbrains.jps.incremental.ModuleLevelBuilder;
+import org.jetbrains.jps.incremental.ProjectBuildException;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+import org.jetbrains.jps.model.JpsElementFactory;
+import org.jetbrains.jps.model.JpsModel;
+import org.jetbrains.jps.model.JpsProject;
+import org.jetbrains.jps.model.java.JavaModuleBuildTargetType;
+import org.jetbrains.jps.model.java.JavaResourceRootType;
+import org.jetbrains.jps.model.java.JavaSourceRootType;
+import org.jetbrains.jps.model.java.JpsJavaExtensionService;
+import org.jetbrains.jps.model.java.JpsJavaLibraryType;
+import org.jetbrains.jps.model.java.JpsJavaModuleExtension;
+import org.jetbrains.jps.model.java.JpsJavaModuleType;
+import org.jetbrains.jps.model.library.JpsLibrary;
+import org.jetbrains.jps.model.library.JpsOrderRootType;
+import org.jetbrains.jps.model.module.JpsModule;
+import org.jetbrains.jps.util.JpsPathUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives {@link FelixModuleLevelBuilder} the way the JPS build process does, over a corpus of
+ * {@link CorpusGenerator}, without an IDE or a build process. The JPS model is real, compile context,
+ * dirty files holder and output consumer are stand-ins. The builder gets project and data directory
+ * through its overridable accessors.
+ * <p>
+ * Every scenario is replayed a number of times, each replay is one build with a fresh compile context:
+ * <ul>
+ * <li>clean: forced rebuild, all sources of all modules are dirty and the build data is gone.</li>
+ * <li>no-op: every module is handed to the builder without dirty files.</li>
+ * <li>single change: a component of a module in the middle of the corpus gains or loses a reference and is
+ * recompiled, every replay has to write its descriptor again.</li>
+ * </ul>
+ * Reported are build wall time, peak heap and the builder latency per module. Peak heap is the largest used
+ * heap sampled while a replay runs, over all replays of the scenario. In async mode the latency is
+ * the time the builder blocks the build thread, the wall time includes waiting for the workers.
+ * <p>
+ * Run with {@code gradlew :jps-plugin:scaleHarness}:
+ * {@code ScrScaleHarness <dir> [small|medium|large] [seed] [inline|async] [replays]}.
+ */
+public class ScrScaleHarness {
+
+    private final List<CorpusModule> corpus;
+
+    private final Map<String, JpsModule> modules = new HashMap<String, JpsModule>();
+
+    private final JpsProject project;
+
+    private final File dataStorageRoot;
+
+    private final AtomicInteger errors = new AtomicInteger();
+
+    private ScrScaleHarness(List<CorpusModule> corpus, File dataStorageRoot, String executionMode) {
+        this.corpus = corpus;
+        this.dataStorageRoot = dataStorageRoot;
+
+        JpsModel model = JpsElementFactory.getInstance().createModel();
+        project = model.getProject();
+
+        for (CorpusModule m : corpus) {
+            JpsModule module = project.addModule(m.getName(), JpsJavaModuleType.INSTANCE);
+            module.addSourceRoot(JpsPathUtil.pathToUrl(m.getSourceRoots()[0].getPath()), JavaSourceRootType.SOURCE);
+            module.addSourceRoot(JpsPathUtil.pathToUrl(m.getSourceRoots()[1].getPath()), JavaResourceRootType.RESOURCE);
+
+            JpsJavaModuleExtension extension = JpsJavaExtensionService.getInstance().getOrCreateModuleExtension(module);
+            extension.setInheritOutput(false);
+            extension.setOutputUrl(JpsPathUtil.pathToUrl(m.getClassDir().getPath()));
+
+            for (String dependency : m.getDependencies()) {
+                module.getDependenciesList().addModuleDependency(modules.get(dependency));
+            }
+
+            // output directories of dependencies come through the module dependencies.
+            for (File f : m.getClasspath()) {
+                if (f.isFile()) {
+                    JpsLibrary library = module.addModuleLibrary(f.getName(), JpsJavaLibraryType.INSTANCE);
+                    library.addRoot(JpsPathUtil.getLibraryRootUrl(f), JpsOrderRootType.COMPILED);
+                    module.getDependenciesList().addLibraryDependency(library);
+                }
+            }
+
+            modules.put(m.getName(), module);
+        }
+
+        Settings settings = new Settings();
+        settings.setExecutionMode(executionMode);
+        JPSSCRExtensionService.getInstance().setSettings(project, settings);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ScrScaleHarness <dir> [small|medium|large] [seed] [inline|async] [replays]");
+            System.exit(2);
+        }
+
+        final File dir = new File(args[0]).getAbsoluteFile();
+        final CorpusProfile profile = CorpusProfile.named(args.length > 1 ? args[1] : "small");
+        final long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        final String mode = args.length > 3 ? args[3] : ScrSettings.EXECUTION_INLINE;
+        final int replays = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+
+        CorpusGenerator.deleteTree(dir);
+        final List<CorpusModule> corpus = new CorpusGenerator(seed, profile).generate(new File(dir, "corpus"));
+
+        System.out.println(String.format("%d modules, profile %s, seed %d, %s mode, %d replays",
+            corpus.size(), profile, seed, mode, replays));
+
+        final ScrScaleHarness harness = new ScrScaleHarness(corpus, new File(dir, "build-data"), mode);
+
+        harness.report("clean", harness.replay(replays, Scenario.CLEAN));
+        harness.report("no-op", harness.replay(replays, Scenario.NO_OP));
+        harness.report("single change", harness.replay(replays, Scenario.SINGLE_CHANGE));
+
+        if (harness.errors.get() > 0) {
+            System.out.println(harness.errors.get() + " errors reported by the builder");
+            System.exit(1);
+        }
+    }
+
+    private enum Scenario {
+        CLEAN, NO_OP, SINGLE_CHANGE
+    }
+
+    private Result replay(int replays, Scenario scenario) throws IOException, ProjectBuildException, InterruptedException {
+        final Result result = new Result();
+
+        final CorpusModule changed = corpus.get(corpus.size() / 2);
+        final File changedSource = new File(changed.getSourceRoots()[0], changed.getName() + "/impl/Component0.java");
+        final String originalSource = new String(Files.readAllBytes(changedSource.toPath()), StandardCharsets.UTF_8);
+
+        for (int i = 0; i < replays; i++) {
+            if (scenario == Scenario.CLEAN) {
+                CorpusGenerator.deleteTree(dataStorageRoot);
+            }
+
+            if (scenario == Scenario.SINGLE_CHANGE) {
+                // alternate, so every replay sees a changed class file whatever the previous one left behind.
+                final String source = i % 2 == 0 ? withExtraReference(originalSource) : originalSource;
+                Files.write(changedSource.toPath(), source.getBytes(StandardCharsets.UTF_8));
+
+                final List<File> classpath = new ArrayList<File>();
+                classpath.add(changed.getClassDir());
+                classpath.addAll(changed.getClasspath());
+                CorpusGenerator.compile(Collections.singletonList(changedSource.getPath()), changed.getClassDir(), classpath);
+            }
+
+            final CompileContext context = newCompileContext();
+            final HarnessBuilder builder = new HarnessBuilder(scenario == Scenario.CLEAN);
+            final int outputs = result.outputs.get();
+
+            System.gc();
+            final HeapSampler heap = new HeapSampler();
+
+            final long start = System.nanoTime();
+            builder.buildStarted(context);
+
+            for (CorpusModule m : corpus) {
+                final List<File> dirty;
+                switch (scenario) {
+                    case CLEAN:
+                        dirty = listFiles(m.getSourceRoots()[0], ".java");
+                        break;
+                    case SINGLE_CHANGE:
+                        dirty = m == changed
+                            ? Collections.singletonList(changedSource)
+                            : Collections.<File>emptyList();
+                        break;
+                    default:
+                        dirty = Collections.emptyList();
+                }
+
+                final ModuleBuildTarget target = new ModuleBuildTarget(modules.get(m.getName()), JavaModuleBuildTargetType.PRODUCTION);
+                final ModuleChunk chunk = new ModuleChunk(Collections.singleton(target));
+
+                final long moduleStart = System.nanoTime();
+                final ModuleLevelBuilder.ExitCode exitCode = builder.build(context, chunk, newDirtyFilesHolder(target, dirty), newOutputConsumer(result));
+                result.latencies.add(System.nanoTime() - moduleStart);
+
+                if (exitCode == ModuleLevelBuilder.ExitCode.ABORT) {
+                    errors.incrementAndGet();
+                }
+            }
+
+            builder.buildFinished(context);
+            result.wallTimes.add(System.nanoTime() - start);
+            result.peakHeap = Math.max(result.peakHeap, heap.stop());
+
+            if (scenario == Scenario.SINGLE_CHANGE && result.outputs.get() == outputs) {
+                errors.incrementAndGet();
+                System.out.println("The change of " + changedSource + " did not produce any output");
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds a reference to Runnable with the annotations the component already uses.
+     */
+    private static String withExtraReference(String source) {
+        final StringBuilder reference = new StringBuilder();
+        if (source.contains("@org.apache.felix.scr.annotations.Component")) {
+            reference.append("    @org.apache.felix.scr.annotations.Reference(bind = \"bindExtra\", unbind = \"unbindExtra\")\n");
+            reference.append("    private java.lang.Runnable extra;\n");
+            reference.append("    protected void bindExtra(java.lang.Runnable s) { extra = s; }\n");
+            reference.append("    protected void unbindExtra(java.lang.Runnable s) { extra = null; }\n");
+        } else {
+            reference.append("    @org.osgi.service.component.annotations.Reference\n");
+            reference.append("    private volatile java.lang.Runnable extra;\n");
+        }
+
+        final int end = source.lastIndexOf('}');
+        return source.substring(0, end) + reference + source.substring(end);
+    }
+
+    private void report(String name, Result result) {
+        final List<Long> wall = new ArrayList<Long>(result.wallTimes);
+        final List<Long> latencies = new ArrayList<Long>(result.latencies);
+        Collections.sort(wall);
+        Collections.sort(latencies);
+
+        System.out.println(String.format(
+            "%-14s wall ms min %d median %d max %d | peak heap %d MB | module ms p50 %.1f p90 %.1f p99 %.1f max %.1f | %d outputs",
+            name,
+            millis(wall.get(0)), millis(wall.get(wall.size() / 2)), millis(wall.get(wall.size() - 1)),
+            result.peakHeap / (1024 * 1024),
+            percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+            percentile(latencies, 1.0),
+            result.outputs.get()));
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000L;
+    }
+
+    private static double percentile(List<Long> sorted, double q) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        final int index = Math.max(0, (int) Math.ceil(q * sorted.size()) - 1);
+        return sorted.get(index) / 1000000.0;
+    }
+
+    private static final class Result {
+        private final List<Long> wallTimes = new ArrayList<Long>();
+        private final List<Long> latencies = new ArrayList<Long>();
+        private final AtomicInteger outputs = new AtomicInteger();
+        private long peakHeap;
+    }
+
+    /**
+     * Samples the used heap of all pools together while a replay runs. The peaks of the single pools are
+     * reached at different moments and cannot be added up.
+     */
+    private static final class HeapSampler implements Runnable {
+        private static final long INTERVAL_MS = 5;
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        private final Thread thread = new Thread(this, "heap-sampler");
+
+        private volatile boolean running = true;
+
+        private volatile long peak;
+
+        private HeapSampler() {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                sample();
+                try {
+                    Thread.sleep(INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void sample() {
+            peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+        }
+
+        /**
+         * @return the largest used heap seen since the sampler has been created.
+         */
+        private long stop() throws InterruptedException {
+            running = false;
+            thread.join();
+            sample();
+            return peak;
+        }
+    }
+
+    /**
+     * Keeps user data and counts errors, everything else is not used by the builder.
+     */
+    private CompileContext newCompileContext() {
+        final Map<Key<?>, Object> userData = new ConcurrentHashMap<Key<?>, Object>();
+
+        final InvocationHandler handler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUserData":
+                    return userData.get(args[0]);
+                case "putUserData":
+                    if (args[1] == null) {
+                        userData.remove(args[0]);
+                    } else {
+                        userData.put((Key<?>) args[0], args[1]);
+                    }
+                    return null;
+                case "processMessage":
+                    final BuildMessage message = (BuildMessage) args[0];
+                    if (message.getKind() == BuildMessage.Kind.ERROR) {
+                        errors.incrementAndGet();
+                        System.out.println(message);
+                    }
+                    return null;
+                case "isCanceled":
+                    return false;
+                case "checkCanceled":
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "CompileContext(harness)";
+                default:
+                    throw new UnsupportedOperationException("CompileContext." + method.getName());
+            }
+        };
+
+        return (CompileContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{CompileContext.class}, handler);
+    }
+
+    @SuppressWarnings("unchecked")
+    private DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget> newDirtyFilesHolder(ModuleBuildTarget target, List<File> dirty) {
+        final InvocationHandler handler = (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "processDirtyFiles":
+                    final FileProcessor<JavaSourceRootDescriptor, ModuleBuildTarget> processor = (FileProcessor<JavaSourceRootDescriptor, ModuleBuildTarget>) args[0];
+                    for (File file : dirty) {
+                        if (!processor.apply(target, file, null)) {
+                            break;
+                        }
+                    }
+                    return null;
+                case "hasDirtyFiles":
+                    return !dirty.isEmpty();
+                case "hasRemovedFiles":
+                    return false;
+                case "getRemovedFiles":
+                    return Collections.emptyList();
+                default:
+                    throw new UnsupportedOperationException("DirtyFilesHolder." + method.getName());
+            }
+        };
+
+        return (DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget>) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{DirtyFilesHolder.class}, handler);
+    }
+
+    private ModuleLevelBuilder.OutputConsumer newOutputConsumer(Result result) {
+        final InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getName().startsWith("register")) {
+                result.outputs.incrementAndGet();
+            }
+            return null;
+        };
+
+        return (ModuleLevelBuilder.OutputConsumer) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[]{ModuleLevelBuilder.OutputConsumer.class}, handler);
+    }
+
+    /**
+     * Answers what the builder would otherwise take from the project descriptor.
+     */
+    private class HarnessBuilder extends FelixModuleLevelBuilder {
+        private final boolean forced;
+
+        private HarnessBuilder(boolean forced) {
+            this.forced = forced;
+        }
+
+        @Override
+        protected JpsProject getProject(CompileContext context) {
+            return project;
+        }
+
+        @Override
+        protected File getDataStorageRoot(CompileContext context) {
+            return dataStorageRoot;
+        }
+
+        @Override
+        protected boolean isForcedRebuild(CompileContext context) {
+            return forced;
+        }
+
+        @Override
+        protected boolean buildsArtifacts(CompileContext context) {
+            return false;
+        }
+
+        /**
+         * Corpus classes are compiled next to nothing else, the class of a source has the same relative path.
+         */
+        @Override
+        protected Map<File, String> collectClassSources(CompileContext compileContext, DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget> holder) throws IOException {
+            final Map<File, String> classSources = new HashMap<File, String>();
+
+            holder.processDirtyFiles((target, file, root) -> {
+                final File sourceRoot = target.getModule().getSourceRoots().get(0).getFile();
+                final String relative = sourceRoot.toPath().relativize(file.toPath()).toString();
+                final File classFile = new File(target.getOutputDir(), relative.substring(0, relative.length() - ".java".length()) + ".class");
+                if (classFile.isFile()) {
+                    classSources.put(classFile, file.getPath());
+                }
+                return true;
+            });
+
+            return classSources;
+        }
+    }
+
+    private static List<File> listFiles(File dir, String suffix) throws IOException {
+        final List<File> files = new ArrayList<File>();
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (file.getFileName().toString().endsWith(suffix)) {
+                    files.add(file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(files);
+        return files;
+    }
+}
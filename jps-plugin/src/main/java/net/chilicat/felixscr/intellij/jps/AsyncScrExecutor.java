@@ -0,0 +1,151 @@
+package net.chilicat.felixscr.intellij.jps;
+
+import com.intellij.openapi.util.Key;
+import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.FSOperations;
+import org.jetbrains.jps.incremental.fs.CompilationRound;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+import org.jetbrains.jps.incremental.messages.CompilerMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs SCR processors of finished chunks on a bounded worker pool, so descriptor generation overlaps with
+ * the compilation of the following chunks. One executor exists per build, it is joined when the build
+ * finishes.
+ * <p>
+ * Queued processors are started in the order of their {@link ScrSchedule} priority.
+ * <p>
+ * Nothing waits for the descriptors before the build finishes, builds which include artifacts do not use
+ * the executor, see {@link FelixModuleLevelBuilder}.
+ */
+public class AsyncScrExecutor {
+
+    private static final Key<AsyncScrExecutor> KEY = Key.create("felix-scr.async-executor");
+
+    private final ThreadPoolExecutor executor;
+
+    private final List<Task> tasks = new ArrayList<Task>();
+
+    private final int queueLimit;
+
+    private AsyncScrExecutor() {
+        final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        final AtomicInteger count = new AtomicInteger();
+
+        queueLimit = threads * 2;
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>(),
+            r -> {
+                Thread t = new Thread(r, "Felix SCR worker " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    public static AsyncScrExecutor getInstance(CompileContext context) {
+        synchronized (context) {
+            AsyncScrExecutor executor = context.getUserData(KEY);
+            if (executor == null) {
+                executor = new AsyncScrExecutor();
+                context.putUserData(KEY, executor);
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * @return the executor of the build or null if nothing has been submitted.
+     */
+    public static AsyncScrExecutor remove(CompileContext context) {
+        synchronized (context) {
+            AsyncScrExecutor executor = context.getUserData(KEY);
+            context.putUserData(KEY, null);
+            return executor;
+        }
+    }
+
+    /**
+     * @param priority higher values are started first, see {@link ScrSchedule#getPriority(ModuleChunk)}.
+     */
+    public void submit(ModuleChunk chunk, ScrProcessor processor, long priority, ScrSchedule schedule) {
+        final Task task = new Task(chunk, priority, () -> {
+            final boolean success = processor.execute();
+            schedule.record(chunk.getName(), processor.getMetrics());
+            return success;
+        });
+        synchronized (tasks) {
+            tasks.add(task);
+        }
+
+        // a full queue makes the submitting builder thread run the processor itself.
+        if (executor.getQueue().size() >= queueLimit) {
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+    }
+
+    /**
+     * Waits for all submitted processors. Modules whose processor failed are marked dirty, so the next build
+     * runs them again.
+     */
+    public void join(CompileContext context, String compilerName) {
+        final List<Task> pending;
+        synchronized (tasks) {
+            pending = new ArrayList<Task>(tasks);
+            tasks.clear();
+        }
+
+        try {
+            for (Task task : pending) {
+                boolean success;
+                try {
+                    success = task.get();
+                } catch (ExecutionException e) {
+                    context.processMessage(new CompilerMessage(compilerName, BuildMessage.Kind.ERROR,
+                        "[" + task.chunk.getName() + "] " + e.getCause()));
+                    success = false;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                if (!success) {
+                    markDirty(context, compilerName, task.chunk);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void markDirty(CompileContext context, String compilerName, ModuleChunk chunk) {
+        try {
+            FSOperations.markDirty(context, CompilationRound.CURRENT, chunk, null);
+        } catch (IOException e) {
+            context.processMessage(new CompilerMessage(compilerName, e));
+        }
+    }
+
+    private static class Task extends FutureTask<Boolean> implements Comparable<Task> {
+        private final ModuleChunk chunk;
+        private final long priority;
+
+        private Task(ModuleChunk chunk, long priority, Callable<Boolean> callable) {
+            super(callable);
+            this.chunk = chunk;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            return Long.compare(o.priority, priority);
+        }
+    }
+}
@@ -4,13 +4,27 @@ import java.util.Collections;
 import java.util.List;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.builders.BuildTargetType;
 import org.jetbrains.jps.incremental.BuilderService;
 import org.jetbrains.jps.incremental.ModuleLevelBuilder;
+import org.jetbrains.jps.incremental.TargetBuilder;
 
 public class Builder extends BuilderService {
+    @NotNull
+    @Override
+    public List<? extends BuildTargetType<?>> getTargetTypes() {
+        return Collections.singletonList(ScrBuildTargetType.INSTANCE);
+    }
+
     @NotNull
     @Override
     public List<? extends ModuleLevelBuilder> createModuleLevelBuilders() {
         return Collections.singletonList(new FelixModuleLevelBuilder());
     }
-}
+
+    @NotNull
+    @Override
+    public List<? extends TargetBuilder<?, ?>> createBuilders() {
+        return Collections.singletonList(new ScrTargetBuilder());
+    }
+}
\ No newline at end of file
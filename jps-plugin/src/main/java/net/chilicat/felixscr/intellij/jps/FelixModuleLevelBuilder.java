@@ -1,56 +1,210 @@
 package net.chilicat.felixscr.intellij.jps;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
+import com.intellij.openapi.util.Key;
+import net.chilicat.felixscr.intellij.settings.ScrSettings;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.builders.BuildTarget;
 import org.jetbrains.jps.builders.DirtyFilesHolder;
 import org.jetbrains.jps.builders.java.JavaSourceRootDescriptor;
+import org.jetbrains.jps.builders.java.JavaBuilderUtil;
 import org.jetbrains.jps.incremental.*;
+import org.jetbrains.jps.incremental.artifacts.ArtifactBuildTargetType;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+import org.jetbrains.jps.incremental.messages.CompilerMessage;
 import org.jetbrains.jps.incremental.messages.ProgressMessage;
+import org.jetbrains.jps.incremental.storage.BuildDataManager;
+import org.jetbrains.jps.model.JpsProject;
 
 public class FelixModuleLevelBuilder extends ModuleLevelBuilder {
+        private static final Key<Boolean> ASYNC_ALLOWED = Key.create("felix-scr.async-allowed");
+
         public FelixModuleLevelBuilder() {
             super(BuilderCategory.CLASS_POST_PROCESSOR);
         }
 
+        @Override
+        public void buildStarted(CompileContext context) {
+            JPSSCRExtensionService instance = JPSSCRExtensionService.getInstance();
+            if (instance.getSettings(getProject(context)).isEnabled()) {
+                // overlaps class loading with javac of the first chunks.
+                instance.getAnalysisEngine().warmUp();
+            }
+        }
+
+        @Override
+        public void buildFinished(CompileContext context) {
+            AsyncScrExecutor executor = AsyncScrExecutor.remove(context);
+            if (executor != null) {
+                context.processMessage(new ProgressMessage(getPresentableName() + " [waiting for descriptors]"));
+                executor.join(context, getPresentableName());
+            }
+
+            // the build process outlives the build, its scan threads must not.
+            JPSSCRExtensionService.getInstance().getAnalysisEngine().getAnnotationScanner().shutdown();
+
+            ScrSchedule schedule = ScrSchedule.remove(context);
+            ScrBuildReport report = ScrBuildReport.remove(context);
+            try {
+                if (schedule != null) {
+                    schedule.save();
+                }
+                if (report != null) {
+                    report.write(getDataStorageRoot(context));
+                }
+            } catch (IOException e) {
+                context.processMessage(new CompilerMessage(getPresentableName(), e));
+            }
+        }
+
         @Override
         public ExitCode build(CompileContext compileContext, ModuleChunk moduleChunk, DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget> holder, OutputConsumer outputConsumer) throws ProjectBuildException, IOException {
             JPSSCRExtensionService instance = JPSSCRExtensionService.getInstance();
-            Settings settings = instance.getSettings(compileContext.getProjectDescriptor().getProject());
+            Settings settings = instance.getSettings(getProject(compileContext));
 
             ScrLoggerImpl logger = new ScrLoggerImpl(compileContext, moduleChunk, getPresentableName(), settings.isDebugLogging());
 
             // Skip tests.
             if (moduleChunk.containsTests()) {
                 logger.debug("Skip test compile");
+                logger.flush();
+                return ExitCode.NOTHING_DONE;
+            }
+
+            if (ScrSettings.EXECUTION_TARGET.equals(settings.getExecutionMode())) {
+                logger.debug(() -> "Descriptors are generated by " + ScrBuildTargetType.INSTANCE.getTypeId());
+                logger.flush();
                 return ExitCode.NOTHING_DONE;
             }
 
-            logger.debug("Settings enabled:" + settings.isEnabled());
-            logger.debug("Has Dirty files:" + holder.hasDirtyFiles());
-            logger.debug("Has removed files:" + holder.hasRemovedFiles());
+            final boolean hasDirtyFiles = holder.hasDirtyFiles();
+            final boolean hasRemovedFiles = holder.hasRemovedFiles();
 
-            if (settings.isEnabled() && (holder.hasDirtyFiles() || holder.hasRemovedFiles())) {
+            logger.debug(() -> "Settings enabled:" + settings.isEnabled());
+            logger.debug(() -> "Has Dirty files:" + hasDirtyFiles);
+            logger.debug(() -> "Has removed files:" + hasRemovedFiles);
+
+            if (settings.isEnabled() && (hasDirtyFiles || hasRemovedFiles)) {
 
                 compileContext.processMessage(new ProgressMessage(getPresentableName() + " [" + moduleChunk.getName() + "]"));
 
                 ScrProcessor p = new ScrProcessor();
                 p.setLogger(logger);
                 p.setSettings(settings);
+                p.setAnalysisEngine(instance.getAnalysisEngine());
                 p.setModuleChunk(moduleChunk);
+                p.setCompileContext(compileContext);
+                p.setDataStorageRoot(getDataStorageRoot(compileContext));
+
+                final Map<File, String> classSources = collectClassSources(compileContext, holder);
+
+                if (!isForcedRebuild(compileContext)) {
+                    p.setChangedClassFiles(classSources.keySet());
+                }
+
+                if (ScrSettings.EXECUTION_ASYNC.equals(settings.getExecutionMode()) && isAsyncAllowed(compileContext)) {
+                    // the output consumer is only valid during this call, outputs are mapped directly.
+                    p.setOutputConsumer(null, classSources);
+                    p.setConcurrentReaders(true);
 
-                if (p.execute()) {
+                    ScrSchedule schedule = getSchedule(compileContext);
+                    AsyncScrExecutor.getInstance(compileContext).submit(moduleChunk, p, schedule.getPriority(moduleChunk), schedule);
                     return ExitCode.OK;
                 }
 
-                return ExitCode.ABORT;
+                p.setOutputConsumer(outputConsumer, classSources);
+
+                final boolean success = p.execute();
+                getSchedule(compileContext).record(moduleChunk.getName(), p.getMetrics());
+
+                return success ? ExitCode.OK : ExitCode.ABORT;
             }
 
             logger.debug("Nothing to do.");
+            logger.flush();
             return ExitCode.NOTHING_DONE;
         }
 
+        /**
+         * Async work is joined when the build finishes, after artifacts of the same build have been packaged.
+         * Builds which include artifacts generate the descriptors inline, an artifact would miss them.
+         */
+        private boolean isAsyncAllowed(CompileContext context) {
+            synchronized (context) {
+                Boolean allowed = context.getUserData(ASYNC_ALLOWED);
+                if (allowed == null) {
+                    allowed = !buildsArtifacts(context);
+                    context.putUserData(ASYNC_ALLOWED, allowed);
+                    if (!allowed) {
+                        context.processMessage(new CompilerMessage(getPresentableName(), BuildMessage.Kind.INFO,
+                            "Artifacts are built too, descriptors are generated inline instead of async"));
+                    }
+                }
+                return allowed;
+            }
+        }
+
+        private ScrSchedule getSchedule(CompileContext context) {
+            return ScrSchedule.getInstance(context, getDataStorageRoot(context), getProject(context));
+        }
+
+        /*
+         * The methods below are everything the builder needs from the project descriptor, the scale harness
+         * overrides them to drive the builder without a real build process.
+         */
+
+        protected JpsProject getProject(CompileContext context) {
+            return context.getProjectDescriptor().getProject();
+        }
+
+        protected File getDataStorageRoot(CompileContext context) {
+            return context.getProjectDescriptor().dataManager.getDataPaths().getDataStorageRoot();
+        }
+
+        protected boolean isForcedRebuild(CompileContext context) {
+            return JavaBuilderUtil.isForcedRecompilationAllJavaModules(context);
+        }
+
+        /**
+         * @return true if an artifact is part of the build, it could package a module before its descriptors.
+         */
+        protected boolean buildsArtifacts(CompileContext context) {
+            for (BuildTarget<?> target : context.getProjectDescriptor().getBuildTargetIndex().getAllTargets(ArtifactBuildTargetType.INSTANCE)) {
+                if (context.getScope().isAffected(target)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Maps the class files javac produced for the dirty sources of the chunk to their source.
+         */
+        protected Map<File, String> collectClassSources(CompileContext compileContext, DirtyFilesHolder<JavaSourceRootDescriptor, ModuleBuildTarget> holder) throws IOException {
+            final BuildDataManager dataManager = compileContext.getProjectDescriptor().dataManager;
+            final Map<File, String> classSources = new HashMap<File, String>();
+
+            holder.processDirtyFiles((target, file, root) -> {
+                final Collection<String> outputs = dataManager.getSourceToOutputMap(target).getOutputs(file.getPath());
+                if (outputs != null) {
+                    for (String output : outputs) {
+                        if (output.endsWith(".class")) {
+                            classSources.put(new File(output), file.getPath());
+                        }
+                    }
+                }
+                return true;
+            });
+
+            return classSources;
+        }
+
         @NotNull
         @Override
         public String getPresentableName() {
@@ -1,10 +1,17 @@
 package net.chilicat.felixscr.intellij.jps;
 
+import net.chilicat.felixscr.intellij.build.scr.ScrAnalysisEngine;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.jps.model.JpsProject;
 import org.jetbrains.jps.service.JpsServiceManager;
 
 public class JPSSCRExtensionService {
+
+    /**
+     * Lives as long as the build process, so a preloaded build process keeps it warm between builds.
+     */
+    private final ScrAnalysisEngine analysisEngine = new ScrAnalysisEngine();
+
     public static JPSSCRExtensionService getInstance() {
         return JpsServiceManager.getInstance().getService(JPSSCRExtensionService.class);
     }
@@ -15,6 +22,10 @@ public class JPSSCRExtensionService {
 
     }
 
+    public ScrAnalysisEngine getAnalysisEngine() {
+        return analysisEngine;
+    }
+
     public Settings setSettings(@NotNull JpsProject project, Settings settings) {
         return project.getContainer().setChild(Settings.ROLE, settings);
     }
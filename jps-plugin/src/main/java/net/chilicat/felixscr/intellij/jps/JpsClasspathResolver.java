@@ -0,0 +1,49 @@
+package net.chilicat.felixscr.intellij.jps;
+
+import com.intellij.openapi.util.Key;
+import net.chilicat.felixscr.intellij.build.scr.ClasspathResolver;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.model.java.JpsJavaDependenciesEnumerator;
+import org.jetbrains.jps.model.java.JpsJavaExtensionService;
+import org.jetbrains.jps.model.library.JpsOrderRootType;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.io.File;
+
+/**
+ * Production classpath of the modules of a JPS build, resolved once per module and build.
+ */
+public class JpsClasspathResolver extends ClasspathResolver<JpsModule> {
+
+    private static final Key<JpsClasspathResolver> KEY = Key.create("felix-scr.classpath-resolver");
+
+    public static JpsClasspathResolver getInstance(CompileContext context) {
+        synchronized (context) {
+            JpsClasspathResolver resolver = context.getUserData(KEY);
+            if (resolver == null) {
+                resolver = new JpsClasspathResolver();
+                context.putUserData(KEY, resolver);
+            }
+            return resolver;
+        }
+    }
+
+    @Override
+    protected void collectDependencies(JpsModule module, Dependencies<JpsModule> dependencies) {
+        directDependencies(module).processModuleAndLibraries(dependencies::module, library -> {
+            for (File f : library.getFiles(JpsOrderRootType.COMPILED)) {
+                dependencies.library(f.getAbsolutePath());
+            }
+        });
+    }
+
+    @Override
+    protected String getOutputPath(JpsModule module) {
+        File output = JpsJavaExtensionService.getInstance().getOutputDirectory(module, false);
+        return output != null ? output.getAbsolutePath() : null;
+    }
+
+    private static JpsJavaDependenciesEnumerator directDependencies(JpsModule module) {
+        return JpsJavaExtensionService.dependencies(module).productionOnly().withoutSdk().withoutModuleSourceEntries();
+    }
+}
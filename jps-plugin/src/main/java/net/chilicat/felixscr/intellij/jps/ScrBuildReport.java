@@ -0,0 +1,95 @@
+package net.chilicat.felixscr.intellij.jps;
+
+import com.intellij.openapi.util.Key;
+import net.chilicat.felixscr.intellij.build.scr.ScrMetrics;
+import net.chilicat.felixscr.intellij.build.scr.ScrTraceRecorder;
+import org.jetbrains.jps.incremental.CompileContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects the metrics of all modules of a build and writes them as felix-scr/build-report.json into the
+ * build data directory when the build finishes. With the trace export enabled the spans of the build are
+ * written to felix-scr/scr-trace.json as well.
+ */
+public class ScrBuildReport {
+
+    private static final Key<ScrBuildReport> KEY = Key.create("felix-scr.build-report");
+
+    static final String FILE_NAME = "build-report.json";
+
+    static final String TRACE_FILE_NAME = "scr-trace.json";
+
+    private final long started = System.currentTimeMillis();
+
+    private final Queue<ScrMetrics> modules = new ConcurrentLinkedQueue<ScrMetrics>();
+
+    private final ScrTraceRecorder trace = new ScrTraceRecorder();
+
+    public static ScrBuildReport getInstance(CompileContext context) {
+        synchronized (context) {
+            ScrBuildReport report = context.getUserData(KEY);
+            if (report == null) {
+                report = new ScrBuildReport();
+                context.putUserData(KEY, report);
+            }
+            return report;
+        }
+    }
+
+    /**
+     * @return the report of the build or null if no module has been processed.
+     */
+    public static ScrBuildReport remove(CompileContext context) {
+        synchronized (context) {
+            ScrBuildReport report = context.getUserData(KEY);
+            context.putUserData(KEY, null);
+            return report;
+        }
+    }
+
+    public ScrTraceRecorder getTraceRecorder() {
+        return trace;
+    }
+
+    public void add(ScrMetrics metrics) {
+        modules.add(metrics);
+    }
+
+    public void write(CompileContext context) throws IOException {
+        write(context.getProjectDescriptor().dataManager.getDataPaths().getDataStorageRoot());
+    }
+
+    /**
+     * @param dataStorageRoot the build data directory, the report goes to its felix-scr directory.
+     */
+    public void write(File dataStorageRoot) throws IOException {
+        File dir = new File(dataStorageRoot, "felix-scr");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"started\": ").append(started)
+            .append(",\n  \"finished\": ").append(System.currentTimeMillis())
+            .append(",\n  \"modules\": [");
+
+        for (Iterator<ScrMetrics> it = modules.iterator(); it.hasNext(); ) {
+            sb.append("\n    ").append(it.next().toJson()).append(it.hasNext() ? "," : "\n  ");
+        }
+
+        sb.append("]\n}\n");
+
+        Files.write(new File(dir, FILE_NAME).toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+
+        if (!trace.isEmpty()) {
+            Files.write(new File(dir, TRACE_FILE_NAME).toPath(), trace.toJson().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
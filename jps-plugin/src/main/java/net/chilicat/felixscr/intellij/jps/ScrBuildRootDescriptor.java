@@ -0,0 +1,43 @@
+package net.chilicat.felixscr.intellij.jps;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.builders.BuildRootDescriptor;
+
+import java.io.File;
+import java.io.FileFilter;
+
+/**
+ * The class output of a module, only class files are inputs of the SCR target.
+ */
+public class ScrBuildRootDescriptor extends BuildRootDescriptor {
+
+    private final ScrBuildTarget target;
+
+    private final File outputDir;
+
+    public ScrBuildRootDescriptor(ScrBuildTarget target, File outputDir) {
+        this.target = target;
+        this.outputDir = outputDir;
+    }
+
+    @Override
+    public String getRootId() {
+        return outputDir.getPath();
+    }
+
+    @Override
+    public File getRootFile() {
+        return outputDir;
+    }
+
+    @Override
+    public ScrBuildTarget getTarget() {
+        return target;
+    }
+
+    @NotNull
+    @Override
+    public FileFilter createFileFilter() {
+        return file -> file.getName().endsWith(".class");
+    }
+}
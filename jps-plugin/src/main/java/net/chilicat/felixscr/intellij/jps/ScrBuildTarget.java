@@ -0,0 +1,140 @@
+package net.chilicat.felixscr.intellij.jps;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.builders.BuildRootIndex;
+import org.jetbrains.jps.builders.BuildTarget;
+import org.jetbrains.jps.builders.BuildTargetRegistry;
+import org.jetbrains.jps.builders.ModuleBasedTarget;
+import org.jetbrains.jps.builders.TargetOutputIndex;
+import org.jetbrains.jps.builders.storage.BuildDataPaths;
+import org.jetbrains.jps.cmdline.ProjectDescriptor;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.ModuleBuildTarget;
+import org.jetbrains.jps.indices.IgnoredFileIndex;
+import org.jetbrains.jps.indices.ModuleExcludeIndex;
+import org.jetbrains.jps.model.JpsModel;
+import org.jetbrains.jps.model.java.JpsJavaClasspathKind;
+import org.jetbrains.jps.model.java.JpsJavaExtensionService;
+import org.jetbrains.jps.model.java.JpsJavaModuleType;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.*;
+
+/**
+ * SCR descriptors of one module. The target reads the class output of the module's production targets and
+ * the outputs of the modules it depends on, and writes OSGI-INF and the Service-Component header of the
+ * manifest. It depends on production targets only: IntelliJ allows cyclic module dependencies, SCR targets
+ * depending on each other would form a cycle JPS rejects, and the descriptors of other modules are not read.
+ */
+public class ScrBuildTarget extends BuildTarget<ScrBuildRootDescriptor> {
+
+    private final JpsModule module;
+
+    public ScrBuildTarget(JpsModule module) {
+        super(ScrBuildTargetType.INSTANCE);
+        this.module = module;
+    }
+
+    public JpsModule getModule() {
+        return module;
+    }
+
+    @Override
+    public String getId() {
+        return module.getName();
+    }
+
+    @Override
+    public Collection<BuildTarget<?>> computeDependencies(BuildTargetRegistry targetRegistry, TargetOutputIndex outputIndex) {
+        List<BuildTarget<?>> dependencies = new ArrayList<BuildTarget<?>>();
+
+        dependencies.addAll(targetRegistry.getModuleBasedTargets(module, BuildTargetRegistry.ModuleTargetSelector.PRODUCTION));
+
+        Set<JpsModule> modules = JpsJavaExtensionService.dependencies(module).includedIn(JpsJavaClasspathKind.PRODUCTION_RUNTIME).getModules();
+        for (JpsModule dependency : modules) {
+            if (!dependency.equals(module) && dependency.getModuleType() == JpsJavaModuleType.INSTANCE) {
+                dependencies.addAll(targetRegistry.getModuleBasedTargets(dependency, BuildTargetRegistry.ModuleTargetSelector.PRODUCTION));
+            }
+        }
+
+        return dependencies;
+    }
+
+    /**
+     * @return the production target the class files are taken from.
+     */
+    @Nullable
+    public ModuleBuildTarget getModuleTarget(BuildTargetRegistry targetRegistry) {
+        for (ModuleBasedTarget<?> target : targetRegistry.getModuleBasedTargets(module, BuildTargetRegistry.ModuleTargetSelector.PRODUCTION)) {
+            if (target instanceof ModuleBuildTarget) {
+                return (ModuleBuildTarget) target;
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    @Override
+    public List<ScrBuildRootDescriptor> computeRootDescriptors(JpsModel model, ModuleExcludeIndex index, IgnoredFileIndex ignoredFileIndex, BuildDataPaths dataPaths) {
+        File outputDir = JpsJavaExtensionService.getInstance().getOutputDirectory(module, false);
+        if (outputDir == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(new ScrBuildRootDescriptor(this, outputDir));
+    }
+
+    @Nullable
+    @Override
+    public ScrBuildRootDescriptor findRootDescriptor(String rootId, BuildRootIndex rootIndex) {
+        for (ScrBuildRootDescriptor descriptor : rootIndex.getTargetRoots(this, null)) {
+            if (descriptor.getRootId().equals(rootId)) {
+                return descriptor;
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    @Override
+    public String getPresentableName() {
+        return "Felix SCR descriptors of '" + module.getName() + "'";
+    }
+
+    /**
+     * None: OSGI-INF and the manifest belong to the resources target, which copies hand-written descriptors
+     * and the manifest there. JPS deletes the output roots of a target on a forced rebuild, without running
+     * the resources target again. Generated descriptors and the manifest are registered through the
+     * {@link org.jetbrains.jps.builders.BuildOutputConsumer} instead.
+     */
+    @NotNull
+    @Override
+    public Collection<File> getOutputRoots(CompileContext context) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * A changed configuration makes JPS rebuild the target.
+     */
+    @Override
+    public void writeConfiguration(ProjectDescriptor pd, PrintWriter out) {
+        Settings settings = JPSSCRExtensionService.getInstance().getSettings(pd.getProject());
+        out.println(settings.getSpec());
+        out.println(settings.isStrictMode());
+        out.println(settings.isGenerateAccessors());
+        out.println(settings.isExplicitServiceComponents());
+        out.println(settings.isOptimizedBuild());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ScrBuildTarget && ((ScrBuildTarget) o).module.equals(module);
+    }
+
+    @Override
+    public int hashCode() {
+        return module.hashCode();
+    }
+}
@@ -0,0 +1,62 @@
+package net.chilicat.felixscr.intellij.jps;
+
+import net.chilicat.felixscr.intellij.settings.ScrSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.builders.BuildTargetLoader;
+import org.jetbrains.jps.builders.BuildTargetType;
+import org.jetbrains.jps.model.JpsModel;
+import org.jetbrains.jps.model.java.JpsJavaModuleType;
+import org.jetbrains.jps.model.module.JpsModule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SCR descriptor generation as a target of its own, used by the {@link ScrSettings#EXECUTION_TARGET} mode.
+ * There is one target per Java module.
+ */
+public class ScrBuildTargetType extends BuildTargetType<ScrBuildTarget> {
+
+    public static final ScrBuildTargetType INSTANCE = new ScrBuildTargetType();
+
+    private ScrBuildTargetType() {
+        super("felix-scr");
+    }
+
+    @NotNull
+    @Override
+    public List<ScrBuildTarget> computeAllTargets(@NotNull JpsModel model) {
+        Settings settings = JPSSCRExtensionService.getInstance().getSettings(model.getProject());
+
+        if (!settings.isEnabled() || !ScrSettings.EXECUTION_TARGET.equals(settings.getExecutionMode())) {
+            return Collections.emptyList();
+        }
+
+        List<ScrBuildTarget> targets = new ArrayList<ScrBuildTarget>();
+        for (JpsModule module : model.getProject().getModules()) {
+            if (module.getModuleType() == JpsJavaModuleType.INSTANCE) {
+                targets.add(new ScrBuildTarget(module));
+            }
+        }
+        return targets;
+    }
+
+    @NotNull
+    @Override
+    public BuildTargetLoader<ScrBuildTarget> createLoader(@NotNull final JpsModel model) {
+        return new BuildTargetLoader<ScrBuildTarget>() {
+            @Nullable
+            @Override
+            public ScrBuildTarget createTarget(@NotNull String targetId) {
+                for (JpsModule module : model.getProject().getModules()) {
+                    if (module.getName().equals(targetId)) {
+                        return new ScrBuildTarget(module);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+}
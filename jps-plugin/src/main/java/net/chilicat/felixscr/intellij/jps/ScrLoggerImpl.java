@@ -18,7 +18,8 @@ public class ScrLoggerImpl extends AbstractScrLogger {
     private ModuleChunk moduleChunk;
 
     public ScrLoggerImpl(CompileContext context, ModuleChunk moduleChunk, String presentableName, boolean debug) {
-        super(debug);
+        // messages reach the build when the processor finishes, also for processors on worker threads.
+        super(debug, true);
         this.context = context;
         this.compilerName = presentableName;
         this.moduleName = moduleChunk.getName();
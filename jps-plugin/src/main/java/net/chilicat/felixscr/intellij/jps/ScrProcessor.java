@@ -1,21 +1,44 @@
 package net.chilicat.felixscr.intellij.jps;
 
+import com.intellij.openapi.util.Key;
 import net.chilicat.felixscr.intellij.build.scr.AbstractScrProcessor;
+import net.chilicat.felixscr.intellij.build.scr.ScrMetrics;
+import net.chilicat.felixscr.intellij.build.scr.ScrTraceRecorder;
 import org.jetbrains.jps.ModuleChunk;
-import org.jetbrains.jps.model.java.JpsJavaDependenciesEnumerator;
-import org.jetbrains.jps.model.java.JpsJavaDependenciesRootsEnumerator;
-import org.jetbrains.jps.model.java.JpsJavaExtensionService;
+import org.jetbrains.jps.builders.BuildOutputConsumer;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.ModuleBuildTarget;
+import org.jetbrains.jps.incremental.ModuleLevelBuilder;
 import org.jetbrains.jps.model.module.JpsModuleSourceRoot;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ScrProcessor extends AbstractScrProcessor {
 
+    /**
+     * Module outputs do not change anymore once dependent modules are built, so their digests are
+     * computed once per build.
+     */
+    private static final Key<Map<String, String>> DIRECTORY_DIGESTS = Key.create("felix-scr.classpath-directory-digests");
+
     private ModuleChunk moduleChunk;
 
+    private CompileContext compileContext;
+
+    private ModuleLevelBuilder.OutputConsumer outputConsumer;
+
+    private BuildOutputConsumer targetOutputConsumer;
+
+    private Map<File, String> classSources = Collections.emptyMap();
+
+    private File dataStorageRoot;
+
     @Override
     protected File[] getModuleSourceRoots() {
         return getModuleSourceRoots(getModuleChunk());
@@ -40,22 +63,130 @@ public class ScrProcessor extends AbstractScrProcessor {
         return moduleChunk.getName();
     }
 
+    /**
+     * Dependencies are shared by many modules, their classpath is resolved once per build.
+     */
     @Override
     protected void collectClasspath(Collection<String> classPath) {
-        JpsJavaExtensionService service = JpsJavaExtensionService.getInstance();
-        JpsJavaDependenciesEnumerator enr = service.enumerateDependencies(Collections.singleton(moduleChunk.representativeTarget().getModule()));
-        JpsJavaDependenciesRootsEnumerator classes = enr.productionOnly().withoutSdk().recursively().classes();
-        for (File f : classes.getRoots()) {
+        JpsClasspathResolver resolver = compileContext != null ? JpsClasspathResolver.getInstance(compileContext) : new JpsClasspathResolver();
+        for (String path : resolver.getClasspath(moduleChunk.representativeTarget().getModule())) {
+            File f = new File(path);
             // filter out non-Java classpath entries, because Felix fails processing them
             if (f.getName().endsWith(".class") || f.getName().endsWith(".jar") || f.isDirectory()) {
 
-                getLogger().debug(String.format("Add to classpath: %s", f.getAbsolutePath()));
+                getLogger().debug(() -> String.format("Add to classpath: %s", path));
 
-                classPath.add(f.getAbsolutePath());
+                classPath.add(path);
             }
         }
     }
 
+    /**
+     * Kept outside of the target data, which "Rebuild Project" drops, so the module fingerprint can
+     * still tell whether existing outputs are up to date after a rebuild.
+     */
+    @Override
+    protected File getStateDir() {
+        File root = dataStorageRoot;
+        if (root == null) {
+            if (compileContext == null) {
+                return null;
+            }
+            root = compileContext.getProjectDescriptor().dataManager.getDataPaths().getDataStorageRoot();
+        }
+        return new File(new File(root, "felix-scr"), toFileName(moduleChunk.representativeTarget().getId()));
+    }
+
+    @Override
+    protected Map<String, String> getClasspathDirectoryDigests() {
+        if (compileContext == null) {
+            return super.getClasspathDirectoryDigests();
+        }
+        synchronized (compileContext) {
+            Map<String, String> digests = compileContext.getUserData(DIRECTORY_DIGESTS);
+            if (digests == null) {
+                digests = new ConcurrentHashMap<String, String>();
+                compileContext.putUserData(DIRECTORY_DIGESTS, digests);
+            }
+            return digests;
+        }
+    }
+
+    @Override
+    protected ScrTraceRecorder getTraceRecorder() {
+        return compileContext != null ? ScrBuildReport.getInstance(compileContext).getTraceRecorder() : null;
+    }
+
+    /**
+     * The summary goes to the build log, the details into the build report.
+     */
+    @Override
+    protected void reportMetrics(ScrMetrics metrics) {
+        super.reportMetrics(metrics);
+        if (compileContext != null) {
+            ScrBuildReport.getInstance(compileContext).add(metrics);
+        }
+    }
+
+    private static String toFileName(String id) {
+        return id.replaceAll("[^A-Za-z0-9._-]", "_") + "_" + Integer.toHexString(id.hashCode());
+    }
+
+    /**
+     * Generated resources are registered as outputs of the source of their class, so JPS removes them
+     * together with the class files. Without an output consumer the mapping is updated directly. The SCR
+     * target registers them as its own outputs with the class file as source.
+     */
+    @Override
+    protected void registerOutput(File output, File classFile) throws IOException {
+        if (targetOutputConsumer != null) {
+            targetOutputConsumer.registerOutputFile(output, Collections.singleton(classFile.getPath()));
+            return;
+        }
+
+        String source = classSources.get(classFile);
+        if (source == null) {
+            return;
+        }
+        ModuleBuildTarget target = moduleChunk.representativeTarget();
+        if (outputConsumer != null) {
+            outputConsumer.registerOutputFile(target, output, Collections.singleton(source));
+        } else if (compileContext != null) {
+            compileContext.getProjectDescriptor().dataManager.getSourceToOutputMap(target).appendOutput(source, output.getPath());
+        }
+    }
+
+    /**
+     * The manifest is copied by the resources target. It is registered without sources, so the SCR target
+     * reports the changed header but JPS never deletes the manifest together with a class file.
+     */
+    @Override
+    protected void registerManifest(File manifest) throws IOException {
+        if (targetOutputConsumer != null) {
+            targetOutputConsumer.registerOutputFile(manifest, Collections.<String>emptyList());
+        }
+    }
+
+    public void setOutputConsumer(ModuleLevelBuilder.OutputConsumer outputConsumer, Map<File, String> classSources) {
+        this.outputConsumer = outputConsumer;
+        this.classSources = classSources;
+    }
+
+    public void setTargetOutputConsumer(BuildOutputConsumer targetOutputConsumer) {
+        this.targetOutputConsumer = targetOutputConsumer;
+    }
+
+    public void setCompileContext(CompileContext compileContext) {
+        this.compileContext = compileContext;
+    }
+
+    /**
+     * @param dataStorageRoot the build data directory, by default the one of the compile context.
+     */
+    public void setDataStorageRoot(File dataStorageRoot) {
+        this.dataStorageRoot = dataStorageRoot;
+    }
+
     public void setModuleChunk(ModuleChunk moduleChunk) {
         this.moduleChunk = moduleChunk;
     }
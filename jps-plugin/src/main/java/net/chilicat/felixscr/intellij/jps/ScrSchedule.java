@@ -0,0 +1,188 @@
+package net.chilicat.felixscr.intellij.jps;
+
+import com.intellij.openapi.util.Key;
+import net.chilicat.felixscr.intellij.build.scr.ScrMetrics;
+import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.ModuleBuildTarget;
+import org.jetbrains.jps.model.JpsProject;
+import org.jetbrains.jps.model.java.JpsJavaExtensionService;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Priorities of pending SCR work. A module is the more urgent the more modules depend on it and the longer
+ * its analysis took in previous builds, so the long poles of a build start first.
+ * <p>
+ * Durations are kept in the build data directory, one entry per module.
+ */
+public class ScrSchedule {
+
+    private static final Key<ScrSchedule> KEY = Key.create("felix-scr.schedule");
+
+    static final String FILE_NAME = "module-costs.properties";
+
+    /**
+     * Weight of the latest duration in the expected cost.
+     */
+    private static final double WEIGHT = 0.5;
+
+    private final File file;
+
+    private final ConcurrentMap<String, Long> costs = new ConcurrentHashMap<String, Long>();
+
+    private final JpsProject project;
+
+    private final JpsClasspathResolver resolver;
+
+    /**
+     * output path to the number of modules depending on it, counted on first use.
+     */
+    private Map<String, Integer> dependents;
+
+    private volatile boolean changed;
+
+    private ScrSchedule(File dataStorageRoot, JpsProject project, JpsClasspathResolver resolver) {
+        this.file = new File(new File(dataStorageRoot, "felix-scr"), FILE_NAME);
+        this.project = project;
+        this.resolver = resolver;
+        load();
+    }
+
+    /**
+     * @param dataStorageRoot the build data directory, the history is read when the schedule is created.
+     * @param project         the project being built.
+     */
+    public static ScrSchedule getInstance(CompileContext context, File dataStorageRoot, JpsProject project) {
+        synchronized (context) {
+            ScrSchedule schedule = context.getUserData(KEY);
+            if (schedule == null) {
+                schedule = new ScrSchedule(dataStorageRoot, project, JpsClasspathResolver.getInstance(context));
+                context.putUserData(KEY, schedule);
+            }
+            return schedule;
+        }
+    }
+
+    /**
+     * @return the schedule of the build or null if none has been used.
+     */
+    public static ScrSchedule remove(CompileContext context) {
+        synchronized (context) {
+            ScrSchedule schedule = context.getUserData(KEY);
+            context.putUserData(KEY, null);
+            return schedule;
+        }
+    }
+
+    /**
+     * @return dependents count times expected cost, higher values run first.
+     */
+    public long getPriority(ModuleChunk chunk) {
+        Map<String, Integer> dependents = getDependents();
+        int count = 0;
+        for (ModuleBuildTarget target : chunk.getTargets()) {
+            File output = JpsJavaExtensionService.getInstance().getOutputDirectory(target.getModule(), false);
+            Integer c = output != null ? dependents.get(output.getAbsolutePath()) : null;
+            if (c != null) {
+                count = Math.max(count, c);
+            }
+        }
+        return (count + 1) * getExpectedCost(chunk.getName());
+    }
+
+    /**
+     * @return expected duration in milliseconds, modules without history get the average of all known ones.
+     */
+    public long getExpectedCost(String moduleName) {
+        Long cost = costs.get(moduleName);
+        if (cost != null) {
+            return Math.max(1, cost);
+        }
+
+        long sum = 0;
+        int n = 0;
+        for (Long c : costs.values()) {
+            sum += c;
+            n++;
+        }
+        return n == 0 ? 1 : Math.max(1, sum / n);
+    }
+
+    /**
+     * Records the cost of a processor run. Runs the fingerprint skipped say nothing about the cost of the
+     * module, the cost of its last analysis is kept.
+     */
+    public void record(String moduleName, ScrMetrics metrics) {
+        if (metrics != null && !metrics.isUpToDate()) {
+            record(moduleName, TimeUnit.NANOSECONDS.toMillis(metrics.getTotalNanos()));
+        }
+    }
+
+    public void record(String moduleName, long millis) {
+        costs.merge(moduleName, millis, (previous, latest) -> Math.round(previous * (1 - WEIGHT) + latest * WEIGHT));
+        changed = true;
+    }
+
+    /**
+     * Only async builds prioritize, the closures are those the processors resolve their classpath from.
+     */
+    private synchronized Map<String, Integer> getDependents() {
+        if (dependents == null) {
+            dependents = resolver.countDependents(project.getModules());
+        }
+        return dependents;
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            // history is only a hint.
+            return;
+        }
+
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                costs.put(name, Long.parseLong(properties.getProperty(name)));
+            } catch (NumberFormatException e) {
+                // ignore entry
+            }
+        }
+    }
+
+    public void save() throws IOException {
+        if (!changed) {
+            return;
+        }
+
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+
+        Properties properties = new Properties();
+        for (Map.Entry<String, Long> e : costs.entrySet()) {
+            properties.setProperty(e.getKey(), Long.toString(e.getValue()));
+        }
+
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            properties.store(out, "Felix SCR analysis duration per module in milliseconds");
+        }
+        changed = false;
+    }
+}
@@ -0,0 +1,79 @@
+package net.chilicat.felixscr.intellij.jps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.builders.BuildOutputConsumer;
+import org.jetbrains.jps.builders.DirtyFilesHolder;
+import org.jetbrains.jps.builders.java.JavaBuilderUtil;
+import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.ModuleBuildTarget;
+import org.jetbrains.jps.incremental.ProjectBuildException;
+import org.jetbrains.jps.incremental.StopBuildException;
+import org.jetbrains.jps.incremental.TargetBuilder;
+import org.jetbrains.jps.incremental.messages.ProgressMessage;
+
+/**
+ * Generates the descriptors of a {@link ScrBuildTarget}. JPS only calls it when class files of the module
+ * changed or the configuration of the target did, and runs independent targets in parallel.
+ */
+public class ScrTargetBuilder extends TargetBuilder<ScrBuildRootDescriptor, ScrBuildTarget> {
+
+    public ScrTargetBuilder() {
+        super(Collections.singletonList(ScrBuildTargetType.INSTANCE));
+    }
+
+    @Override
+    public void build(@NotNull ScrBuildTarget target,
+                      @NotNull DirtyFilesHolder<ScrBuildRootDescriptor, ScrBuildTarget> holder,
+                      @NotNull BuildOutputConsumer outputConsumer,
+                      @NotNull CompileContext context) throws ProjectBuildException, IOException {
+
+        if (!holder.hasDirtyFiles() && !holder.hasRemovedFiles()) {
+            return;
+        }
+
+        ModuleBuildTarget moduleTarget = target.getModuleTarget(context.getProjectDescriptor().getBuildTargetIndex());
+        if (moduleTarget == null) {
+            return;
+        }
+
+        JPSSCRExtensionService instance = JPSSCRExtensionService.getInstance();
+        Settings settings = instance.getSettings(context.getProjectDescriptor().getProject());
+        ModuleChunk chunk = new ModuleChunk(Collections.singleton(moduleTarget));
+
+        context.processMessage(new ProgressMessage(getPresentableName() + " [" + chunk.getName() + "]"));
+
+        ScrProcessor p = new ScrProcessor();
+        p.setLogger(new ScrLoggerImpl(context, chunk, getPresentableName(), settings.isDebugLogging()));
+        p.setSettings(settings);
+        p.setAnalysisEngine(instance.getAnalysisEngine());
+        p.setModuleChunk(chunk);
+        p.setCompileContext(context);
+        p.setTargetOutputConsumer(outputConsumer);
+
+        if (!JavaBuilderUtil.isForcedRecompilationAllJavaModules(context)) {
+            final Set<File> changed = new HashSet<File>();
+            holder.processDirtyFiles((t, file, root) -> {
+                changed.add(file);
+                return true;
+            });
+            p.setChangedClassFiles(changed);
+        }
+
+        if (!p.execute()) {
+            throw new StopBuildException();
+        }
+    }
+
+    @NotNull
+    @Override
+    public String getPresentableName() {
+        return "Felix SCR";
+    }
+}
@@ -28,6 +28,30 @@ public class Settings extends JpsElementBase<Settings> implements ScrSettings {
         return state.debugLogging;
     }
 
+    public boolean isExplicitServiceComponents() {
+        return state.explicitServiceComponents;
+    }
+
+    public void setExplicitServiceComponents(boolean explicitServiceComponents) {
+        state.explicitServiceComponents = explicitServiceComponents;
+    }
+
+    public boolean isTraceExport() {
+        return state.traceExport;
+    }
+
+    public void setTraceExport(boolean traceExport) {
+        state.traceExport = traceExport;
+    }
+
+    public String getExecutionMode() {
+        return state.executionMode;
+    }
+
+    public void setExecutionMode(String executionMode) {
+        state.executionMode = executionMode;
+    }
+
     public boolean isEnabled() {
         return state.enabled;
     }
@@ -90,6 +114,9 @@ public class Settings extends JpsElementBase<Settings> implements ScrSettings {
         public boolean generateAccessors = true;
         public boolean optimizedBuild = true;
         public boolean debugLogging = false;
+        public boolean explicitServiceComponents = false;
+        public boolean traceExport = false;
         public String spec = "1.1";
+        public String executionMode = EXECUTION_INLINE;
     }
 }
@@ -8,6 +8,8 @@ import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 
 import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ScrLoggerImpl extends AbstractScrLogger {
 
@@ -15,6 +17,11 @@ public class ScrLoggerImpl extends AbstractScrLogger {
 
     private Module module;
 
+    /**
+     * Location to VFS URL, strict mode on a broken module reports the same sources many times.
+     */
+    private final Map<String, String> urls = new ConcurrentHashMap<String, String>();
+
     public ScrLoggerImpl(CompileContext context, Module module, boolean debug) {
         super(debug);
         this.context = context;
@@ -30,10 +37,10 @@ public class ScrLoggerImpl extends AbstractScrLogger {
     protected void log(Level l, String message, Throwable t, String location, int row, int column) {
 
         if (location != null) {
-            VirtualFile fileByIoFile = LocalFileSystem.getInstance().findFileByIoFile(new File(location));
-            if (fileByIoFile != null) {
-                location = fileByIoFile.getUrl();
-            }
+            location = urls.computeIfAbsent(location, path -> {
+                VirtualFile fileByIoFile = LocalFileSystem.getInstance().findFileByIoFile(new File(path));
+                return fileByIoFile != null ? fileByIoFile.getUrl() : path;
+            });
         }
 
         CompilerMessageCategory level = CompilerMessageCategory.ERROR;
@@ -6,16 +6,20 @@ import java.util.Collection;
 import com.intellij.openapi.compiler.CompileContext;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.roots.LibraryOrderEntry;
+import com.intellij.openapi.roots.ModuleOrderEntry;
 import com.intellij.openapi.roots.ModuleRootManager;
 import com.intellij.openapi.roots.OrderEntry;
 import com.intellij.openapi.roots.OrderRootType;
 import com.intellij.openapi.roots.libraries.Library;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import net.chilicat.felixscr.intellij.build.ScrCompiler;
 
 public class ScrProcessor extends AbstractScrProcessor {
 
+    private static final Key<ModuleClasspathResolver> RESOLVER = Key.create("felix-scr.classpath-resolver");
+
     private final CompileContext context;
 
     private final Module module;
@@ -53,47 +57,60 @@ public class ScrProcessor extends AbstractScrProcessor {
         return module.getName();
     }
 
+    /**
+     * Dependencies are shared by many modules, their classpath is resolved once per compilation.
+     */
     @Override
     protected void collectClasspath(Collection<String> classPath) {
-        collectClasspath(module, classPath);
+        ModuleClasspathResolver resolver = context.getUserData(RESOLVER);
+        if (resolver == null) {
+            resolver = new ModuleClasspathResolver(context);
+            context.putUserData(RESOLVER, resolver);
+        }
+
+        for (String path : resolver.getClasspath(module)) {
+            getLogger().debug(() -> String.format("Add to classpath: %s", path));
+            classPath.add(path);
+        }
     }
 
-    private void collectClasspath(Module module, Collection<String> classPath) {
-        for (OrderEntry library : ModuleRootManager.getInstance(module).getOrderEntries()) {
-            if (library instanceof LibraryOrderEntry) {
-                LibraryOrderEntry libEntry = (LibraryOrderEntry) library;
-                if (libEntry.getScope().isForProductionCompile() || libEntry.getScope().isForProductionRuntime()) {
-                    final Library lib = libEntry.getLibrary();
-
-                    if (lib != null) {
-                        final VirtualFile[] files = lib.getFiles(OrderRootType.CLASSES);
-                        for (VirtualFile f : files) {
-                            final String absolutePath = VfsUtil.virtualToIoFile(f).getAbsolutePath();
-
-                            if (getLogger().isDebugEnabled()) {
-                                getLogger().debug(
-                                    String.format(
-                                        "Add to classpath: %s, from lib %s",
-                                        absolutePath,
-                                        lib.getName()
-                                    )
-                                );
+    private static class ModuleClasspathResolver extends ClasspathResolver<Module> {
+        private final CompileContext context;
+
+        private ModuleClasspathResolver(CompileContext context) {
+            this.context = context;
+        }
+
+        @Override
+        protected void collectDependencies(Module module, Dependencies<Module> dependencies) {
+            for (OrderEntry entry : ModuleRootManager.getInstance(module).getOrderEntries()) {
+                if (entry instanceof LibraryOrderEntry) {
+                    LibraryOrderEntry libEntry = (LibraryOrderEntry) entry;
+                    if (libEntry.getScope().isForProductionCompile() || libEntry.getScope().isForProductionRuntime()) {
+                        final Library lib = libEntry.getLibrary();
+
+                        if (lib != null) {
+                            for (VirtualFile f : lib.getFiles(OrderRootType.CLASSES)) {
+                                dependencies.library(VfsUtil.virtualToIoFile(f).getAbsolutePath());
                             }
+                        }
+                    }
+                } else if (entry instanceof ModuleOrderEntry) {
+                    ModuleOrderEntry moduleEntry = (ModuleOrderEntry) entry;
+                    if (moduleEntry.getScope().isForProductionCompile() || moduleEntry.getScope().isForProductionRuntime()) {
+                        final Module dependency = moduleEntry.getModule();
 
-                            classPath.add(absolutePath);
+                        if (dependency != null) {
+                            dependencies.module(dependency);
                         }
                     }
                 }
             }
         }
 
-        for (Module m : ModuleRootManager.getInstance(module).getDependencies()) {
-            String outputPath = ScrCompiler.getOutputPath(context, m);
-            if (!classPath.contains(outputPath)) {
-                classPath.add(outputPath);
-                collectClasspath(m, classPath);
-            }
+        @Override
+        protected String getOutputPath(Module module) {
+            return ScrCompiler.getOutputPath(context, module);
         }
     }
-
 }
@@ -21,8 +21,11 @@ public class ScrSettingsImpl implements PersistentStateComponent<ScrSettingsImpl
     private boolean optimizedBuild = true;
     private boolean incremental = false;
     private boolean debugLogging;
+    private boolean explicitServiceComponents = false;
+    private boolean traceExport = false;
 
     private String spec = SPEC_1_1;
+    private String executionMode = EXECUTION_INLINE;
 
 
     public void setDebugLogging(boolean debug) {
@@ -33,6 +36,30 @@ public class ScrSettingsImpl implements PersistentStateComponent<ScrSettingsImpl
         return this.debugLogging;
     }
 
+    public boolean isExplicitServiceComponents() {
+        return explicitServiceComponents;
+    }
+
+    public void setExplicitServiceComponents(boolean explicitServiceComponents) {
+        this.explicitServiceComponents = explicitServiceComponents;
+    }
+
+    public boolean isTraceExport() {
+        return traceExport;
+    }
+
+    public void setTraceExport(boolean traceExport) {
+        this.traceExport = traceExport;
+    }
+
+    public String getExecutionMode() {
+        return executionMode;
+    }
+
+    public void setExecutionMode(String executionMode) {
+        this.executionMode = executionMode;
+    }
+
     public boolean isOptimizedBuild() {
         return optimizedBuild;
     }
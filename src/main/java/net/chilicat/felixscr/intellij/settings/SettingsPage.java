@@ -18,6 +18,9 @@ public class SettingsPage {
     private JCheckBox generateAccessorsBox;
     private JCheckBox optimizedBuildBox;
     private JCheckBox debugLoggingBox;
+    private JCheckBox explicitServiceComponentsBox;
+    private JComboBox executionModeBox;
+    private JCheckBox traceExportBox;
     private boolean modified = false;
 
     public SettingsPage() {
@@ -37,6 +40,9 @@ public class SettingsPage {
         list.add(specBox);
         list.add(optimizedBuildBox);
         list.add(debugLoggingBox);
+        list.add(explicitServiceComponentsBox);
+        list.add(executionModeBox);
+        list.add(traceExportBox);
 
         ModifyUpdateListener l = new ModifyUpdateListener();
         for (ItemSelectable s : list) {
@@ -67,6 +73,9 @@ public class SettingsPage {
         settingsState.setGenerateAccessors(generateAccessorsBox.isSelected());
         settingsState.setOptimizedBuild(optimizedBuildBox.isSelected());
         settingsState.setDebugLogging(debugLoggingBox.isSelected());
+        settingsState.setExplicitServiceComponents(explicitServiceComponentsBox.isSelected());
+        settingsState.setExecutionMode(executionModeBox.getSelectedItem().toString());
+        settingsState.setTraceExport(traceExportBox.isSelected());
 
         modified = false;
     }
@@ -78,6 +87,9 @@ public class SettingsPage {
         generateAccessorsBox.setSelected(settingsState.isGenerateAccessors());
         optimizedBuildBox.setSelected(settingsState.isOptimizedBuild());
         debugLoggingBox.setSelected(settingsState.isDebugLogging());
+        explicitServiceComponentsBox.setSelected(settingsState.isExplicitServiceComponents());
+        executionModeBox.setSelectedItem(settingsState.getExecutionMode());
+        traceExportBox.setSelected(settingsState.isTraceExport());
         modified = false;
     }
 